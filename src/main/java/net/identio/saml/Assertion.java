@@ -20,6 +20,7 @@ package net.identio.saml;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
@@ -28,6 +29,8 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -36,7 +39,6 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.codehaus.stax2.XMLOutputFactory2;
-import org.codehaus.stax2.XMLStreamReader2;
 import org.codehaus.stax2.XMLStreamWriter2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,6 +71,9 @@ public class Assertion extends SignableSAMLObject {
     private Instant notBefore;
     private ArrayList<Attribute> attributes = new ArrayList<>();
 
+    // Response the assertion was streamed from, until its DOM is needed
+    AuthentResponse container;
+
     protected Assertion() {
 
     }
@@ -76,7 +81,8 @@ public class Assertion extends SignableSAMLObject {
     protected void init(XMLOutputFactory2 xmlof, String version, String issuer, String subjectID, String subjectType,
                         String subjectConfirmationInResponseTo, String subjectConfirmationRecipient,
                         String subjectConfirmationMethod, String authentMethod, Instant authentInstant, String authentSession,
-                        String audience, int maxTimeOffset, int validityLength, ArrayList<Attribute> attributes)
+                        String audience, int maxTimeOffset, int validityLength, ArrayList<Attribute> attributes,
+                        Instant issueInstant)
             throws TechnicalException {
 
         LOG.debug("Starting SAML assertion generation...");
@@ -98,7 +104,7 @@ public class Assertion extends SignableSAMLObject {
         this.audience = audience;
 
         // Update time-dependent parameters
-        issueInstant = Instant.now();
+        this.issueInstant = issueInstant;
         notAfter = issueInstant.plus(validityLength, ChronoUnit.MINUTES);
         notBefore = issueInstant.minus(maxTimeOffset, ChronoUnit.MINUTES);
 
@@ -117,10 +123,13 @@ public class Assertion extends SignableSAMLObject {
 
             xmlw.writeStartDocument();
             xmlw.setPrefix("saml", SamlConstants.ASSERTION_NS);
-            xmlw.setPrefix("xsi", SamlConstants.XML_SCHEMA_INSTANCE_NS);
             xmlw.writeStartElement(SamlConstants.ASSERTION_NS, "Assertion");
             xmlw.writeNamespace("saml", SamlConstants.ASSERTION_NS);
-            xmlw.writeNamespace("xsi", SamlConstants.XML_SCHEMA_INSTANCE_NS);
+
+            // The xsi namespace is not used by the assertion content
+            if (!compact) {
+                xmlw.writeNamespace("xsi", SamlConstants.XML_SCHEMA_INSTANCE_NS);
+            }
 
             xmlw.writeAttribute("ID", id);
             xmlw.writeAttribute("IssueInstant", issueInstant.toString());
@@ -195,10 +204,14 @@ public class Assertion extends SignableSAMLObject {
                     xmlw.writeAttribute("NameFormat", SamlConstants.ATTRIBUTE_BASIC_NAME_FORMAT);
                     xmlw.writeAttribute("Name", attribute.getName());
 
-                    xmlw.writeStartElement(SamlConstants.ASSERTION_NS, "AttributeValue");
-                    xmlw.writeAttribute("type", attribute.getType());
-                    xmlw.writeCharacters(attribute.getValue());
-                    xmlw.writeEndElement();
+                    // Values are streamed from the attribute, without
+                    // intermediate copy
+                    for (Object value : attribute.getValues()) {
+                        xmlw.writeStartElement(SamlConstants.ASSERTION_NS, "AttributeValue");
+                        xmlw.writeAttribute("type", attribute.getType());
+                        writeAttributeValue(xmlw, value);
+                        xmlw.writeEndElement();
+                    }
 
                     xmlw.writeEndElement();
 
@@ -217,7 +230,24 @@ public class Assertion extends SignableSAMLObject {
         LOG.debug("SAML assertion generated.");
     }
 
-    protected void init(XMLStreamReader2 parser, Document assertionDoc)
+    private static void writeAttributeValue(XMLStreamWriter2 xmlw, Object value) throws XMLStreamException {
+
+        // Use the typed write methods to avoid building intermediate strings
+        if (value instanceof Integer) {
+            xmlw.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            xmlw.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            xmlw.writeBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            byte[] binaryValue = (byte[]) value;
+            xmlw.writeBinary(binaryValue, 0, binaryValue.length);
+        } else if (value != null) {
+            xmlw.writeCharacters(value.toString());
+        }
+    }
+
+    protected void init(XMLStreamReader parser, Document assertionDoc)
             throws TechnicalException {
 
         LOG.debug("Starting SAML assertion generation...");
@@ -286,18 +316,21 @@ public class Assertion extends SignableSAMLObject {
 
                         String name;
                         String type = null;
-                        String value = null;
+                        ArrayList<String> values = new ArrayList<>();
 
                         name = parser.getAttributeValue(null, "Name");
 
-                        parser.nextTag();
-
-                        if ("AttributeValue".equals(parser.getLocalName())) {
+                        while (parser.nextTag() == XMLStreamConstants.START_ELEMENT
+                                && "AttributeValue".equals(parser.getLocalName())) {
                             type = parser.getAttributeValue(null, "type");
-                            value = parser.getElementText();
+                            values.add(parser.getElementText());
                         }
 
-                        attributes.add(new Attribute(name, type, value));
+                        if (values.size() > 1) {
+                            attributes.add(new Attribute(name, type, values.get(0), values));
+                        } else {
+                            attributes.add(new Attribute(name, type, values.isEmpty() ? null : values.get(0)));
+                        }
 
                         break;
 
@@ -314,6 +347,63 @@ public class Assertion extends SignableSAMLObject {
         LOG.debug("SAML assertion generated.");
     }
 
+    /**
+     * Get the DOM representation of the assertion. For an assertion streamed
+     * from a response, the DOM is extracted from the response on first access.
+     *
+     * @return DOM document of the assertion
+     * @throws TechnicalException Thrown when the DOM document could not be built
+     */
+    @Override
+    protected synchronized Document getDocument() throws TechnicalException {
+
+        if (doc == null && container != null) {
+            doc = container.getAssertionDocument();
+            container = null;
+        }
+
+        return doc;
+    }
+
+    /**
+     * Replace the DOM of the assertion by the assertion embedded in a
+     * response, for example once it has been signed in the response. The DOM
+     * is extracted from the response on first access.
+     *
+     * @param response Response embedding the assertion
+     */
+    synchronized void setContainer(AuthentResponse response) {
+        doc = null;
+        container = response;
+    }
+
+    /**
+     * Serializes the assertion element, without XML declaration, into the
+     * given writer. Used to embed the assertion in an enclosing document
+     * without copying its DOM.
+     *
+     * @param writer Writer to serialize the assertion into
+     * @throws TechnicalException Thrown when something went wrong when serializing the assertion
+     */
+    protected void writeTo(Writer writer) throws TechnicalException {
+
+        LOG.debug("Starting SAML assertion serialization...");
+
+        try {
+
+            TransformerFactory tf = TransformerFactory.newInstance();
+            Transformer transformer = tf.newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+
+            transformer.transform(new DOMSource(getDocument().getDocumentElement()), new StreamResult(writer));
+
+        } catch (TransformerException e) {
+            throw new TechnicalException("Error when serializing Assertion", e);
+        }
+
+        LOG.debug("SAML assertion serialized.");
+    }
+
     /**
      * Displays the assertion in a human readable format
      *
@@ -328,19 +418,23 @@ public class Assertion extends SignableSAMLObject {
 
         try (StringWriter writer = new StringWriter()) {
 
-            DOMSource domSource = new DOMSource(doc);
+            DOMSource domSource = new DOMSource(getDocument());
             StreamResult result = new StreamResult(writer);
             TransformerFactory tf = TransformerFactory.newInstance();
             Transformer transformer;
 
             transformer = tf.newTransformer();
 
+            if (compact) {
+                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            }
+
             transformer.transform(domSource, result);
 
             writer.flush();
             returnValue = writer.toString();
 
-        } catch (TransformerException | IOException e) {
+        } catch (TransformerException | IOException | TechnicalException e) {
             LOG.error("Error when converting SAML Assertion to String", e);
         }
 
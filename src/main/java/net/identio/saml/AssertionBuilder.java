@@ -50,6 +50,7 @@ public class AssertionBuilder {
 
     private Instant authentInstant;
     private ArrayList<Attribute> attributes;
+    private boolean compactOutput;
 
     private static final XMLOutputFactory2 xmlof;
 
@@ -149,6 +150,19 @@ public class AssertionBuilder {
         return this;
     }
 
+    /**
+     * Defines if the generated assertion should be in compact form: unused and
+     * inherited namespace declarations, optional informative elements and the
+     * XML declaration are omitted
+     *
+     * @param compactOutput True if the output should be compact
+     * @return The current AssertionBuilder
+     */
+    public AssertionBuilder setCompactOutput(boolean compactOutput) {
+        this.compactOutput = compactOutput;
+        return this;
+    }
+
     /**
      * Build the assertion
      *
@@ -158,9 +172,10 @@ public class AssertionBuilder {
     public Assertion build() throws TechnicalException {
 
         Assertion assertion = new Assertion();
+        assertion.compact = compactOutput;
         assertion.init(xmlof, version, issuer, subjectID, subjectType, subjectConfirmationInResponseTo,
                 subjectConfirmationRecipient, subjectConfirmationMethod, authentMethod, authentInstant, authentSession,
-                audience, maxTimeOffset, validityLength, attributes);
+                audience, maxTimeOffset, validityLength, attributes, Instant.now());
 
         return assertion;
     }
@@ -0,0 +1,191 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+
+package net.identio.saml;
+
+import net.identio.saml.exceptions.TechnicalException;
+import net.identio.saml.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous front of a Signer. Signatures are computed on a dedicated
+ * bounded pool of threads, so that the request threads only wait for the
+ * result when they need it.
+ * <p>
+ * When the signing queue is full, the rejection policy applies: either the
+ * signature fails immediately, or it is computed by the calling thread, which
+ * slows down the producers.
+ *
+ * @author Loeiz TANGUY
+ */
+public class AsyncSigner implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncSigner.class);
+
+    public static final String REJECTION_POLICY_FAIL = "fail";
+    public static final String REJECTION_POLICY_CALLER_RUNS = "caller-runs";
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+
+    private final Signer signer;
+    private final ThreadPoolExecutor executor;
+    private final boolean callerRuns;
+
+    /**
+     * Build an asynchronous signer with one signing thread per core, a queue
+     * of 1024 pending signatures and the fail rejection policy
+     *
+     * @param signer Signer to use
+     */
+    public AsyncSigner(Signer signer) {
+        this(signer, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, REJECTION_POLICY_FAIL);
+    }
+
+    /**
+     * Build an asynchronous signer
+     *
+     * @param signer          Signer to use
+     * @param threads         Number of signing threads
+     * @param queueCapacity   Maximum number of pending signatures
+     * @param rejectionPolicy Policy applied when the queue is full: REJECTION_POLICY_FAIL or
+     *                        REJECTION_POLICY_CALLER_RUNS
+     */
+    public AsyncSigner(Signer signer, int threads, int queueCapacity, String rejectionPolicy) {
+
+        Assert.notNull(signer, "Signer can't be null");
+
+        if (!REJECTION_POLICY_FAIL.equals(rejectionPolicy) && !REJECTION_POLICY_CALLER_RUNS.equals(rejectionPolicy)) {
+            throw new IllegalArgumentException("Unknown rejection policy: " + rejectionPolicy);
+        }
+
+        LOG.debug("Starting AsyncSigner initialization...");
+        LOG.debug("Signing threads: {}", threads);
+        LOG.debug("Queue capacity: {}", queueCapacity);
+        LOG.debug("Rejection policy: {}", rejectionPolicy);
+
+        this.signer = signer;
+        this.callerRuns = REJECTION_POLICY_CALLER_RUNS.equals(rejectionPolicy);
+
+        String namePrefix = "saml-signer-" + poolNumber.incrementAndGet() + "-";
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread thread = new Thread(r, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+
+        LOG.debug("AsyncSigner initialized.");
+    }
+
+    /**
+     * Sign a SAML object asynchronously. The object must not be used until
+     * the returned future completes.
+     *
+     * @param object Object to sign
+     * @param <T>    Type of the SAML object
+     * @return A future completed with the signed object, or with the
+     * TechnicalException that prevented the signature
+     */
+    public <T extends SignableSAMLObject> CompletableFuture<T> signEmbedded(T object) {
+        return submit(() -> {
+            signer.signEmbedded(object);
+            return object;
+        });
+    }
+
+    /**
+     * Sign a string asynchronously
+     *
+     * @param infoToSign A string representation of the information to sign
+     * @return A future completed with the signature, or with the
+     * TechnicalException that prevented the signature
+     */
+    public CompletableFuture<byte[]> signExternal(String infoToSign) {
+        return submit(() -> signer.signExternal(infoToSign));
+    }
+
+    /**
+     * Get the number of signatures waiting for a signing thread
+     *
+     * @return Number of pending signatures
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stop accepting new signatures. Pending signatures are still computed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> submit(SigningTask<T> task) {
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        Runnable runnable = () -> {
+
+            // Don't spend time on a signature nobody waits for anymore
+            if (future.isDone()) {
+                return;
+            }
+
+            // Errors are handed to the future as well, otherwise the caller would wait forever
+            try {
+                future.complete(task.sign());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+
+            if (callerRuns && !executor.isShutdown()) {
+                LOG.debug("Signing queue full, signing in the calling thread");
+                runnable.run();
+            } else {
+                future.completeExceptionally(new TechnicalException("Signature rejected: signing queue is full or"
+                        + " signer is closed", e));
+            }
+        }
+
+        return future;
+    }
+
+    @FunctionalInterface
+    private interface SigningTask<T> {
+        T sign() throws TechnicalException;
+    }
+}
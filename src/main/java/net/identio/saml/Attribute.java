@@ -18,10 +18,19 @@
 
 package net.identio.saml;
 
+import net.identio.saml.utils.Assert;
+
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
 /**
- * Represents a SAML basic attribute.
+ * Represents a SAML basic attribute. An attribute holds either a single value
+ * or several values of the same type, written as one saml:Attribute element
+ * with one AttributeValue per value.
  *
  * @author Loeiz TANGUY
  */
@@ -32,6 +41,7 @@ public class Attribute implements Serializable {
     private final String name;
     private final String type;
     private final String value;
+    private final Iterable<?> values;
 
     /**
      * Get the name of the attribute
@@ -52,7 +62,9 @@ public class Attribute implements Serializable {
     }
 
     /**
-     * Get the value of the attribute
+     * Get the value of the attribute. For a multi-valued attribute, this is
+     * its first value, formatted as in the assertion, or null if it has no
+     * value.
      *
      * @return Value of the attribute
      */
@@ -60,6 +72,25 @@ public class Attribute implements Serializable {
         return value;
     }
 
+    /**
+     * Get the values of the attribute. The values are returned as provided:
+     * String, Integer, Long, Boolean or byte[] for a base64 binary value.
+     *
+     * @return Values of the attribute
+     */
+    public Iterable<?> getValues() {
+        return values != null ? values : Collections.singletonList(value);
+    }
+
+    /**
+     * Indicates if the attribute was built with several values
+     *
+     * @return True if the attribute is multi-valued
+     */
+    public boolean isMultiValued() {
+        return values != null;
+    }
+
     /**
      * Constructor of an attribute with a friendly name and a value.
      * The generated attribute is implicitly of type String
@@ -71,6 +102,7 @@ public class Attribute implements Serializable {
         name = friendlyName;
         type = "xs:string";
         this.value = value;
+        this.values = null;
     }
 
     /**
@@ -84,12 +116,13 @@ public class Attribute implements Serializable {
         this.name = name;
         this.type = type;
         this.value = value;
+        this.values = null;
     }
 
     /**
      * Constructor of an attribute with a name, a type and a value.
-     * The type is infered from the class of value. Only String, Integer and
-     * Boolean are supported.
+     * The type is infered from the class of value. Only String, Integer,
+     * Boolean and byte[] (base64 binary) are supported.
      * All other types will be considered as String.
      *
      * @param name  Name of the attribute
@@ -101,10 +134,166 @@ public class Attribute implements Serializable {
             this.type = SamlConstants.ATTRIBUTE_TYPE_INTEGER;
         } else if (value instanceof Boolean) {
             this.type = SamlConstants.ATTRIBUTE_TYPE_BOOLEAN;
+        } else if (value instanceof byte[]) {
+            this.type = SamlConstants.ATTRIBUTE_TYPE_BASE64;
         } else {
             this.type = SamlConstants.ATTRIBUTE_TYPE_STRING;
         }
         this.name = name;
-        this.value = value.toString();
+        this.value = format(value);
+        this.values = null;
+    }
+
+    /**
+     * Build a multi-valued attribute with a name, a type and its values. The
+     * values are streamed when the assertion is generated and are never
+     * copied: the Iterable is traversed once per generated assertion, plus
+     * once to read the first value when the attribute is built. Values can be
+     * String, Integer, Long, Boolean or byte[] for the base64 binary type.
+     *
+     * @param name   Name of the attribute
+     * @param type   Type of the values
+     * @param values Values of the attribute
+     * @return The multi-valued attribute
+     */
+    public static Attribute multiValued(String name, String type, Iterable<?> values) {
+
+        Assert.notNull(values, "Values can't be null");
+
+        Iterator<?> iterator = values.iterator();
+
+        return new Attribute(name, type, iterator.hasNext() ? format(iterator.next()) : null, values);
+    }
+
+    /**
+     * Build a multi-valued attribute with a name, a type and its values. The
+     * values are streamed when the assertion is generated, so such an
+     * attribute can only be used in a single assertion.
+     *
+     * @param name   Name of the attribute
+     * @param type   Type of the values
+     * @param values Values of the attribute
+     * @return The multi-valued attribute
+     */
+    public static Attribute singleUse(String name, String type, Iterator<?> values) {
+
+        Assert.notNull(values, "Values can't be null");
+
+        if (!values.hasNext()) {
+            return new Attribute(name, type, null, new SingleUseIterable(values));
+        }
+
+        // The first value is still served with the others
+        Object first = values.next();
+
+        return new Attribute(name, type, format(first), new SingleUseIterable(prepend(first, values)));
+    }
+
+    /**
+     * Constructor of a parsed attribute: the first value is kept as the value
+     * of the attribute.
+     *
+     * @param name   Name of the attribute
+     * @param type   Type of the values
+     * @param value  First value of the attribute
+     * @param values All values of the attribute
+     */
+    Attribute(String name, String type, String value, Iterable<?> values) {
+        this.name = name;
+        this.type = type;
+        this.value = value;
+        this.values = values;
+    }
+
+    private static String format(Object value) {
+        return value instanceof byte[] ? Base64.getEncoder().encodeToString((byte[]) value) : value.toString();
+    }
+
+    private static Iterator<Object> prepend(Object first, Iterator<?> rest) {
+
+        return new Iterator<Object>() {
+
+            private boolean firstServed;
+
+            @Override
+            public boolean hasNext() {
+                return !firstServed || rest.hasNext();
+            }
+
+            @Override
+            public Object next() {
+
+                if (!firstServed) {
+                    firstServed = true;
+                    return first;
+                }
+
+                return rest.next();
+            }
+        };
+    }
+
+    /**
+     * Copy the values of the attribute in a list. The values of an attribute
+     * built from an Iterator remain available for a single assertion.
+     *
+     * @return Values of the attribute
+     */
+    List<Object> snapshot() {
+
+        if (values instanceof SingleUseIterable) {
+            return ((SingleUseIterable) values).drain();
+        }
+
+        ArrayList<Object> list = new ArrayList<>();
+        for (Object item : getValues()) {
+            list.add(item);
+        }
+        return list;
+    }
+
+    /**
+     * The provided Iterable is not required to be serializable: a copy of the
+     * attribute holding a list of its values is serialized instead.
+     */
+    private Object writeReplace() {
+
+        if (values == null || values instanceof ArrayList) {
+            return this;
+        }
+
+        return new Attribute(name, type, value, snapshot());
+    }
+
+    private static class SingleUseIterable implements Iterable<Object> {
+
+        private Iterator<?> iterator;
+
+        private SingleUseIterable(Iterator<?> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized Iterator<Object> iterator() {
+
+            if (iterator == null) {
+                throw new IllegalStateException("Attribute values have already been consumed");
+            }
+
+            Iterator<Object> result = (Iterator<Object>) iterator;
+            iterator = null;
+            return result;
+        }
+
+        private synchronized List<Object> drain() {
+
+            ArrayList<Object> list = new ArrayList<>();
+            iterator().forEachRemaining(list::add);
+
+            // The values are still served once from the copy
+            iterator = list.iterator();
+            return list;
+        }
     }
 }
@@ -45,6 +45,7 @@ public class AuthentRequestBuilder {
     private ArrayList<String> requestedAuthnContext;
     private Endpoint preferredEndpoint;
     private boolean preferEndpointIndex;
+    private boolean compactOutput;
 
     private static final XMLOutputFactory2 xmlof;
     private static final XMLInputFactory2 xmlif;
@@ -159,6 +160,19 @@ public class AuthentRequestBuilder {
         return this;
     }
 
+    /**
+     * Defines if the generated request should be in compact form: unused and
+     * inherited namespace declarations, optional informative elements and the
+     * XML declaration are omitted
+     *
+     * @param compactOutput True if the output should be compact
+     * @return The current AuthentRequestBuilder
+     */
+    public AuthentRequestBuilder setCompactOutput(boolean compactOutput) {
+        this.compactOutput = compactOutput;
+        return this;
+    }
+
     /**
      * Build the request
      *
@@ -168,6 +182,7 @@ public class AuthentRequestBuilder {
     public AuthentRequest build() throws TechnicalException {
 
         AuthentRequest ar = new AuthentRequest();
+        ar.compact = compactOutput;
         ar.init(xmlof, version, issuer, destination, subjectID, subjectType, forceAuthent, passive,
                 authnClassComparison, requestedAuthnContext, preferredEndpoint, preferEndpointIndex);
 
@@ -28,13 +28,19 @@ import org.codehaus.stax2.XMLStreamWriter2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -43,6 +49,7 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.time.Instant;
 import java.util.Base64;
@@ -67,6 +74,13 @@ public class AuthentResponse extends SignableSAMLObject {
 
     private Assertion assertion;
 
+    // Streamed form of the response, until its DOM is needed
+    private String xml;
+
+    // Factory of a generated response, until it is either streamed or built
+    // as a DOM
+    private XMLOutputFactory2 xmlof;
+
     protected AuthentResponse() {
 
     }
@@ -87,66 +101,7 @@ public class AuthentResponse extends SignableSAMLObject {
             XMLStreamReader2 parser = (XMLStreamReader2) xmlif
                     .createXMLStreamReader(new ByteArrayInputStream(responseString.getBytes("UTF-8")));
 
-            boolean responseParsed = false;
-            boolean assertionParsed = false;
-
-            for (int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next()) {
-
-                // Ignore everything but a start element
-                if (event != XMLStreamConstants.START_ELEMENT) {
-                    continue;
-                }
-
-                switch (parser.getLocalName()) {
-
-                    case "Response":
-
-                        if (responseParsed) {
-                            throw new InvalidAuthentResponseException(
-                                    "Invalid Response: two response elements in the submitted SAML response");
-                        }
-                        responseParsed = true;
-
-                        version = parser.getAttributeValue(null, "Version");
-                        destination = parser.getAttributeValue(null, "Destination");
-                        id = parser.getAttributeValue(null, "ID");
-                        issueInstant = Instant.parse(parser.getAttributeValue(null, "IssueInstant"));
-                        break;
-
-                    case "Signature":
-                        signed = true;
-                        break;
-
-                    case "Assertion":
-
-                        if (assertionParsed) {
-                            throw new InvalidAuthentResponseException(
-                                    "Invalid Response: two assertion elements in the submitted SAML response");
-                        }
-                        assertionParsed = true;
-                        // We entered the assertion
-                        buildAssertion(parser, db);
-                        break;
-
-                    // We make sure to get the issuer tag of the Response, not
-                    // the Assertion
-                    case "Issuer":
-                        issuer = parser.getElementText();
-                        break;
-
-                    case "StatusCode":
-                        status = SamlConstants.STATUS_SUCCESS.equals(parser.getAttributeValue(null, "Value"));
-                        break;
-
-                    case "StatusMessage":
-                        statusMessage = parser.getElementText();
-                        break;
-
-                    default:
-                        // Do nothing
-                        break;
-                }
-            }
+            parse(parser, db);
 
             parser.close();
 
@@ -157,19 +112,150 @@ public class AuthentResponse extends SignableSAMLObject {
         }
     }
 
-    private void buildAssertion(XMLStreamReader2 parser, DocumentBuilder db)
+    /**
+     * Initialize the response from a reader that verifies its signatures
+     * while it is parsed. No DOM is built: it is parsed from the response
+     * string if it is ever needed.
+     *
+     * @param parser         Reader of the response
+     * @param responseString String containing the response
+     * @throws XMLStreamException              Thrown when the response could not be read
+     * @throws TechnicalException              Thrown when something went wrong when parsing the response
+     * @throws InvalidAuthentResponseException Thrown when the response doesn't have the awaited format
+     */
+    protected void init(XMLStreamReader parser, String responseString)
+            throws XMLStreamException, TechnicalException, InvalidAuthentResponseException {
+
+        LOG.debug("Starting streamed Authentication Response generation...");
+
+        xml = responseString;
+
+        parse(parser, null);
+    }
+
+    private void parse(XMLStreamReader parser, DocumentBuilder db)
+            throws XMLStreamException, TechnicalException, InvalidAuthentResponseException {
+
+        boolean responseParsed = false;
+        boolean assertionParsed = false;
+
+        for (int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next()) {
+
+            // Ignore everything but a start element
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            switch (parser.getLocalName()) {
+
+                case "Response":
+
+                    if (responseParsed) {
+                        throw new InvalidAuthentResponseException(
+                                "Invalid Response: two response elements in the submitted SAML response");
+                    }
+                    responseParsed = true;
+
+                    version = parser.getAttributeValue(null, "Version");
+                    destination = parser.getAttributeValue(null, "Destination");
+                    id = parser.getAttributeValue(null, "ID");
+                    issueInstant = Instant.parse(parser.getAttributeValue(null, "IssueInstant"));
+                    break;
+
+                case "Signature":
+                    signed = true;
+                    break;
+
+                case "Assertion":
+
+                    if (assertionParsed) {
+                        throw new InvalidAuthentResponseException(
+                                "Invalid Response: two assertion elements in the submitted SAML response");
+                    }
+                    assertionParsed = true;
+                    // We entered the assertion
+                    buildAssertion(parser, db);
+                    break;
+
+                // We make sure to get the issuer tag of the Response, not
+                // the Assertion
+                case "Issuer":
+                    issuer = parser.getElementText();
+                    break;
+
+                case "StatusCode":
+                    status = SamlConstants.STATUS_SUCCESS.equals(parser.getAttributeValue(null, "Value"));
+                    break;
+
+                case "StatusMessage":
+                    statusMessage = parser.getElementText();
+                    break;
+
+                default:
+                    // Do nothing
+                    break;
+            }
+        }
+
+        LOG.debug("SAML Authentication Response generated.");
+    }
+
+    private void buildAssertion(XMLStreamReader parser, DocumentBuilder db)
             throws TechnicalException {
 
-        Node assertionNode = doc.getElementsByTagNameNS(SamlConstants.ASSERTION_NS, "Assertion").item(0);
+        assertion = new Assertion();
+
+        if (db == null) {
+            // Streamed response: the DOM of the assertion is extracted from
+            // the response on demand
+            assertion.init(parser, null);
+            assertion.container = this;
+            return;
+        }
+
+        assertion.init(parser, buildAssertionDocument(doc, db));
+    }
+
+    /**
+     * Get a standalone DOM copy of the embedded assertion
+     *
+     * @return DOM document of the assertion
+     * @throws TechnicalException Thrown when the DOM document could not be built
+     */
+    protected Document getAssertionDocument() throws TechnicalException {
+
+        try {
+            return buildAssertionDocument(getDocument(), XmlUtils.getSecureDocumentBuilder());
+        } catch (ParserConfigurationException e) {
+            throw new TechnicalException("Error when parsing AuthnResponse", e);
+        }
+    }
+
+    private static Document buildAssertionDocument(Document responseDoc, DocumentBuilder db) {
+
+        Node assertionNode = responseDoc.getElementsByTagNameNS(SamlConstants.ASSERTION_NS, "Assertion").item(0);
         Document assertionDoc = db.newDocument();
 
-        Node dup = assertionDoc.importNode(assertionNode, true);
+        Element dup = (Element) assertionDoc.importNode(assertionNode, true);
         assertionDoc.appendChild(dup);
 
-        assertion = new Assertion();
-        assertion.init(parser, assertionDoc);
+        // Restore the namespace declarations inherited from the response, as
+        // they are needed to canonicalize the assertion
+        for (Node parent = assertionNode.getParentNode(); parent instanceof Element; parent = parent.getParentNode()) {
 
-        LOG.debug("SAML Authentication Response generated.");
+            NamedNodeMap attributes = parent.getAttributes();
+
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node attr = attributes.item(i);
+
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())
+                        && !dup.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attr.getLocalName())) {
+                    dup.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attr.getNodeName(), attr.getNodeValue());
+                }
+            }
+        }
+
+        return assertionDoc;
     }
 
     protected void init(XMLOutputFactory2 xmlof, String version, String issuer, boolean status, String statusMessage,
@@ -191,57 +277,154 @@ public class AuthentResponse extends SignableSAMLObject {
         UUID uuid = UUID.randomUUID();
         this.id = SamlConstants.UUID_PREFIX + uuid.toString();
 
-        XMLStreamWriter2 xmlw;
-        try {
+        // Nothing is written yet: the response is streamed when it is first
+        // converted to a string, or its DOM is built directly when it is
+        // signed first
+        this.xmlof = xmlof;
 
-            DocumentBuilder db = XmlUtils.getSecureDocumentBuilder();
+        LOG.debug("SAML Authentication Response generated.");
+    }
 
-            doc = db.newDocument();
+    private String writeXml() throws TechnicalException {
 
-            xmlw = (XMLStreamWriter2) xmlof.createXMLStreamWriter(new DOMResult(doc));
+        LOG.debug("Streaming Authentication Response...");
 
-            xmlw.writeStartDocument();
-            xmlw.setPrefix("samlp", SamlConstants.PROTOCOL_NS);
-            xmlw.setPrefix("saml", SamlConstants.ASSERTION_NS);
-            xmlw.writeStartElement(SamlConstants.PROTOCOL_NS, "Response");
-            xmlw.writeNamespace("samlp", SamlConstants.PROTOCOL_NS);
-            xmlw.writeNamespace("saml", SamlConstants.ASSERTION_NS);
-
-            xmlw.writeAttribute("ID", id);
-            xmlw.writeAttribute("IssueInstant", issueInstant.toString());
-            xmlw.writeAttribute("Version", version);
-            xmlw.writeAttribute("Destination", destination);
-
-            // Add issuer
-            xmlw.writeStartElement(SamlConstants.ASSERTION_NS, "Issuer");
-            xmlw.writeCharacters(issuer);
-            xmlw.writeEndElement();
+        // The embedded assertion is serialized in place instead of being
+        // imported in a DOM copy
+        try (StringWriter writer = new StringWriter()) {
 
-            xmlw.writeStartElement(SamlConstants.PROTOCOL_NS, "Status");
-            xmlw.writeStartElement(SamlConstants.PROTOCOL_NS, "StatusCode");
-            if (status) {
-                xmlw.writeAttribute("Value", SamlConstants.STATUS_SUCCESS);
-            } else {
-                xmlw.writeAttribute("Value", SamlConstants.STATUS_ERROR);
-                xmlw.writeEndElement();
-                xmlw.writeStartElement(SamlConstants.PROTOCOL_NS, "StatusMessage");
-                xmlw.writeCharacters(statusMessage);
+            XMLStreamWriter2 xmlw = (XMLStreamWriter2) xmlof.createXMLStreamWriter(writer);
+
+            if (!compact) {
+                xmlw.writeStartDocument();
+            }
+
+            writeEnvelope(xmlw);
+
+            // Add the assertion: its serialized form keeps its own namespace
+            // declarations so that its signature stays valid. In compact mode,
+            // the declarations already made by the response are not repeated:
+            // the exclusive canonicalization used by the signature is not
+            // sensitive to where they are declared.
+            if (assertion != null) {
+                if (compact) {
+                    XmlUtils.writeElement(xmlw, assertion.getDocument().getDocumentElement(), true);
+                } else {
+                    xmlw.flush();
+                    assertion.writeTo(writer);
+                }
             }
 
             xmlw.writeEndDocument();
             xmlw.close();
 
-            // Add the assertion
+            writer.flush();
+            return writer.toString();
+
+        } catch (XMLStreamException e) {
+            throw new TechnicalException("Error when generating AuthnResponse", e);
+        } catch (IOException e) {
+            throw new TechnicalException("I/O error when generating AuthnResponse", e);
+        }
+    }
+
+    private Document buildDocument() throws TechnicalException {
+
+        LOG.debug("Building DOM of the Authentication Response...");
+
+        // Signing needs the DOM: building it directly and importing the DOM
+        // of the assertion is cheaper than streaming the response and parsing
+        // it back
+        try {
+
+            Document document = XmlUtils.getSecureDocumentBuilder().newDocument();
+
+            XMLStreamWriter2 xmlw = (XMLStreamWriter2) xmlof.createXMLStreamWriter(new DOMResult(document));
+
+            xmlw.writeStartDocument();
+            writeEnvelope(xmlw);
+            xmlw.writeEndDocument();
+            xmlw.close();
+
             if (assertion != null) {
-                Node dup = doc.importNode(assertion.doc.getDocumentElement(), true);
-                doc.getDocumentElement().appendChild(dup);
+                Node dup = document.importNode(assertion.getDocument().getDocumentElement(), true);
+                document.getDocumentElement().appendChild(dup);
             }
 
+            return document;
+
         } catch (XMLStreamException | ParserConfigurationException e) {
             throw new TechnicalException("Error when generating AuthnResponse", e);
         }
+    }
 
-        LOG.debug("SAML Authentication Response generated.");
+    private void writeEnvelope(XMLStreamWriter2 xmlw) throws XMLStreamException {
+
+        xmlw.setPrefix("samlp", SamlConstants.PROTOCOL_NS);
+        xmlw.setPrefix("saml", SamlConstants.ASSERTION_NS);
+        xmlw.writeStartElement(SamlConstants.PROTOCOL_NS, "Response");
+        xmlw.writeNamespace("samlp", SamlConstants.PROTOCOL_NS);
+        xmlw.writeNamespace("saml", SamlConstants.ASSERTION_NS);
+
+        xmlw.writeAttribute("ID", id);
+        xmlw.writeAttribute("IssueInstant", issueInstant.toString());
+        xmlw.writeAttribute("Version", version);
+        xmlw.writeAttribute("Destination", destination);
+
+        // Add issuer
+        xmlw.writeStartElement(SamlConstants.ASSERTION_NS, "Issuer");
+        xmlw.writeCharacters(issuer);
+        xmlw.writeEndElement();
+
+        xmlw.writeStartElement(SamlConstants.PROTOCOL_NS, "Status");
+        xmlw.writeStartElement(SamlConstants.PROTOCOL_NS, "StatusCode");
+        if (status) {
+            xmlw.writeAttribute("Value", SamlConstants.STATUS_SUCCESS);
+        } else {
+            xmlw.writeAttribute("Value", SamlConstants.STATUS_ERROR);
+            xmlw.writeEndElement();
+            xmlw.writeStartElement(SamlConstants.PROTOCOL_NS, "StatusMessage");
+            xmlw.writeCharacters(statusMessage);
+        }
+        xmlw.writeEndElement();
+        xmlw.writeEndElement();
+    }
+
+    /**
+     * Get the DOM representation of the response. For a generated response,
+     * the DOM is built on first access: directly if the response was never
+     * converted to a string, otherwise by parsing its streamed form.
+     *
+     * @return DOM document of the response
+     * @throws TechnicalException Thrown when the DOM document could not be built
+     */
+    @Override
+    protected synchronized Document getDocument() throws TechnicalException {
+
+        if (doc == null && xml == null && xmlof != null) {
+
+            doc = buildDocument();
+            xmlof = null;
+
+        } else if (doc == null && xml != null) {
+
+            LOG.debug("Building DOM of the Authentication Response...");
+
+            try {
+                DocumentBuilder db = XmlUtils.getSecureDocumentBuilder();
+                doc = db.parse(new InputSource(new StringReader(xml)));
+
+                // From now on, the DOM is the reference form of the response
+                xml = null;
+
+            } catch (SAXException | ParserConfigurationException e) {
+                throw new TechnicalException("Error when parsing AuthnResponse", e);
+            } catch (IOException e) {
+                throw new TechnicalException("I/O error when parsing AuthnResponse", e);
+            }
+        }
+
+        return doc;
     }
 
     /**
@@ -329,6 +512,24 @@ public class AuthentResponse extends SignableSAMLObject {
 
         String returnValue = "";
 
+        synchronized (this) {
+
+            if (doc == null && xml == null && xmlof != null) {
+                try {
+                    xml = writeXml();
+                    xmlof = null;
+                } catch (TechnicalException e) {
+                    LOG.error("Error when converting SAML Authentication Response to String", e);
+                    return returnValue;
+                }
+            }
+
+            if (xml != null) {
+                LOG.debug("SAML Authentication Response converted to String: '{}'", xml);
+                return xml;
+            }
+        }
+
         try (StringWriter writer = new StringWriter()) {
 
             DOMSource domSource = new DOMSource(doc);
@@ -339,6 +540,10 @@ public class AuthentResponse extends SignableSAMLObject {
 
             transformer = tf.newTransformer();
 
+            if (compact) {
+                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            }
+
             transformer.transform(domSource, result);
 
             writer.flush();
@@ -0,0 +1,353 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package net.identio.saml;
+
+import net.identio.saml.exceptions.TechnicalException;
+import net.identio.saml.utils.Assert;
+import org.codehaus.stax2.XMLOutputFactory2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * SAML authentication responses batch builder. This class generates, for a
+ * single authentication event, one response per target service provider.
+ * <p>
+ * The subject, authentication statement, attributes and time conditions are
+ * resolved once and shared by all generated assertions. Assertions and
+ * responses are built and signed on the calling thread, or in parallel on the
+ * configured executor.
+ *
+ * @author Loeiz TANGUY
+ */
+public class AuthentResponseBatchBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuthentResponseBatchBuilder.class);
+
+    private static final String version = "2.0";
+
+    private String issuer;
+    private String subjectID;
+    private String subjectType;
+    private String authentSession;
+    private String authentMethod;
+    private Instant authentInstant;
+    private ArrayList<Attribute> attributes;
+
+    private int validityLength;
+    private int maxTimeOffset;
+
+    private Signer signer;
+    private boolean signResponses;
+    private ExecutorService executor;
+    private boolean compactOutput;
+
+    private final ArrayList<Target> targets = new ArrayList<>();
+
+    private static final XMLOutputFactory2 xmlof;
+
+    static {
+        xmlof = (XMLOutputFactory2) XMLOutputFactory2.newInstance();
+
+        // Configure factories
+        xmlof.configureForSpeed();
+    }
+
+    protected AuthentResponseBatchBuilder() {
+    }
+
+    public static AuthentResponseBatchBuilder getInstance() {
+        return new AuthentResponseBatchBuilder();
+    }
+
+    /**
+     * Defines the issuer of the responses and assertions
+     *
+     * @param issuer Name of the issuer
+     * @return The current AuthentResponseBatchBuilder
+     */
+    public AuthentResponseBatchBuilder setIssuer(String issuer) {
+        Assert.notNull(issuer, "Issuer can't be null");
+        this.issuer = issuer;
+        return this;
+    }
+
+    /**
+     * Defines the subject of the assertions
+     *
+     * @param id   Identifier of the subject
+     * @param type Subject format
+     * @return The current AuthentResponseBatchBuilder
+     */
+    public AuthentResponseBatchBuilder setSubject(String id, String type) {
+        Assert.notNull(id, "Id can't be null");
+        this.subjectID = id;
+        this.subjectType = type;
+        return this;
+    }
+
+    /**
+     * Defines the authentication event shared by all assertions
+     *
+     * @param authnMethod    Authentication method
+     * @param authentInstant Authentication date
+     * @param authentSession Authentication session identifier
+     * @return The current AuthentResponseBatchBuilder
+     */
+    public AuthentResponseBatchBuilder setAuthentStatement(String authnMethod, Instant authentInstant,
+                                                           String authentSession) {
+        this.authentMethod = authnMethod;
+        this.authentInstant = authentInstant;
+        this.authentSession = authentSession;
+        return this;
+    }
+
+    /**
+     * Set optional attributes shared by all assertions. The values of the
+     * multi-valued attributes are copied, as an attribute built from an
+     * Iterator could only be used in a single assertion.
+     *
+     * @param attributes Attribute list to add
+     * @return The current AuthentResponseBatchBuilder
+     */
+    public AuthentResponseBatchBuilder setAttributes(ArrayList<Attribute> attributes) {
+
+        this.attributes = new ArrayList<>();
+
+        for (Attribute attribute : attributes) {
+            this.attributes.add(attribute.isMultiValued()
+                    ? new Attribute(attribute.getName(), attribute.getType(), attribute.getValue(),
+                    attribute.snapshot())
+                    : attribute);
+        }
+        return this;
+    }
+
+    /**
+     * Defines the validity of the assertions
+     *
+     * @param validityLength Validity period of the assertions
+     * @param maxTimeOffset  Maximum time offset acceptable
+     * @return The current AuthentResponseBatchBuilder
+     */
+    public AuthentResponseBatchBuilder setValidity(int validityLength, int maxTimeOffset) {
+        this.validityLength = validityLength;
+        this.maxTimeOffset = maxTimeOffset;
+        return this;
+    }
+
+    /**
+     * Defines the signer used on assertions for the service providers that
+     * want them signed, and optionally on every response
+     *
+     * @param signer        Signer to use
+     * @param signResponses True if the responses should be signed too
+     * @return The current AuthentResponseBatchBuilder
+     */
+    public AuthentResponseBatchBuilder setSigner(Signer signer, boolean signResponses) {
+        this.signer = signer;
+        this.signResponses = signResponses;
+        return this;
+    }
+
+    /**
+     * Defines the executor used to build and sign the responses in parallel.
+     * The executor should be dedicated to CPU-bound work, as the signature of
+     * a response can block on a remote signing backend. By default, the
+     * responses are built on the calling thread.
+     *
+     * @param executor Executor to use
+     * @return The current AuthentResponseBatchBuilder
+     */
+    public AuthentResponseBatchBuilder setExecutor(ExecutorService executor) {
+        Assert.notNull(executor, "Executor can't be null");
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Defines if the generated responses should be in compact form: unused and
+     * inherited namespace declarations, optional informative elements and the
+     * XML declaration are omitted
+     *
+     * @param compactOutput True if the output should be compact
+     * @return The current AuthentResponseBatchBuilder
+     */
+    public AuthentResponseBatchBuilder setCompactOutput(boolean compactOutput) {
+        this.compactOutput = compactOutput;
+        return this;
+    }
+
+    /**
+     * Add a target service provider for an unsolicited response
+     *
+     * @param audience   Entity ID of the service provider
+     * @param descriptor SP SSO Descriptor of the service provider
+     * @return The current AuthentResponseBatchBuilder
+     */
+    public AuthentResponseBatchBuilder addTarget(String audience, SpSsoDescriptor descriptor) {
+        return addTarget(audience, descriptor, null);
+    }
+
+    /**
+     * Add a target service provider
+     *
+     * @param audience     Entity ID of the service provider
+     * @param descriptor   SP SSO Descriptor of the service provider
+     * @param inResponseTo Identifier of the previous request, if any
+     * @return The current AuthentResponseBatchBuilder
+     */
+    public AuthentResponseBatchBuilder addTarget(String audience, SpSsoDescriptor descriptor, String inResponseTo) {
+        Assert.notNull(audience, "Audience can't be null");
+        Assert.notNull(descriptor, "SP descriptor can't be null");
+        targets.add(new Target(audience, descriptor, inResponseTo));
+        return this;
+    }
+
+    /**
+     * Build the responses, in the order the targets were added
+     *
+     * @return Built responses
+     * @throws TechnicalException Thrown when something went wrong when generating a response
+     */
+    public List<AuthentResponse> build() throws TechnicalException {
+
+        LOG.debug("Starting batch generation of {} Authentication Responses...", targets.size());
+
+        // Time conditions are shared by all assertions of the batch
+        Instant issueInstant = Instant.now();
+
+        ArrayList<AuthentResponse> responses = new ArrayList<>();
+
+        if (executor == null) {
+
+            for (Target target : targets) {
+                responses.add(buildResponse(target, issueInstant));
+            }
+
+            LOG.debug("Authentication Responses generated.");
+
+            return responses;
+        }
+
+        ArrayList<Callable<AuthentResponse>> tasks = new ArrayList<>();
+        for (Target target : targets) {
+            tasks.add(() -> buildResponse(target, issueInstant));
+        }
+
+        try {
+
+            for (Future<AuthentResponse> future : executor.invokeAll(tasks)) {
+                responses.add(future.get());
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TechnicalException("Interrupted when generating Authentication Responses", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TechnicalException) {
+                throw (TechnicalException) e.getCause();
+            }
+            throw new TechnicalException("Error when generating Authentication Responses", e.getCause());
+        }
+
+        LOG.debug("Authentication Responses generated.");
+
+        return responses;
+    }
+
+    private AuthentResponse buildResponse(Target target, Instant issueInstant) throws TechnicalException {
+
+        String recipient = findAssertionConsumerService(target.descriptor);
+
+        Assertion assertion = new Assertion();
+        assertion.compact = compactOutput;
+        assertion.init(xmlof, version, issuer, subjectID, subjectType, target.inResponseTo, recipient,
+                SamlConstants.SUBJECT_CONFIRMATION_BEARER, authentMethod, authentInstant, authentSession,
+                target.audience, maxTimeOffset, validityLength, attributes, issueInstant);
+
+        // Each service provider can be assigned its own signing key
+        String signingAlias = signer != null ? signer.getAliasForTarget(target.audience) : null;
+        boolean signAssertion = signer != null && target.descriptor.isWantAssertionsSigned();
+        boolean signResponse = signer != null && signResponses;
+
+        if (signAssertion && !signResponse) {
+            signer.signEmbedded(assertion, signingAlias);
+        }
+
+        AuthentResponse response = new AuthentResponse();
+        response.compact = compactOutput;
+        response.init(xmlof, version, issuer, true, null, recipient, assertion);
+
+        // Both signatures are computed on the response document
+        if (signAssertion && signResponse) {
+            signer.signResponseAndAssertion(response, signingAlias);
+        } else if (signResponse) {
+            signer.signEmbedded(response, signingAlias);
+        }
+
+        return response;
+    }
+
+    private static String findAssertionConsumerService(SpSsoDescriptor descriptor) throws TechnicalException {
+
+        Endpoint postEndpoint = null;
+
+        for (Endpoint endpoint : descriptor.getAssertionConsumerServices()) {
+
+            if (!SamlConstants.BINDING_HTTP_POST.equals(endpoint.getBinding())) {
+                continue;
+            }
+
+            if (endpoint.isDefault()) {
+                return endpoint.getLocation();
+            }
+
+            if (postEndpoint == null) {
+                postEndpoint = endpoint;
+            }
+        }
+
+        if (postEndpoint == null) {
+            throw new TechnicalException("No HTTP-POST assertion consumer service found for the service provider");
+        }
+
+        return postEndpoint.getLocation();
+    }
+
+    private static class Target {
+
+        private final String audience;
+        private final SpSsoDescriptor descriptor;
+        private final String inResponseTo;
+
+        private Target(String audience, SpSsoDescriptor descriptor, String inResponseTo) {
+            this.audience = audience;
+            this.descriptor = descriptor;
+            this.inResponseTo = inResponseTo;
+        }
+    }
+}
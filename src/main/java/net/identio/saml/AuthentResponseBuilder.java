@@ -20,10 +20,15 @@ package net.identio.saml;
 
 import net.identio.saml.exceptions.InvalidAssertionException;
 import net.identio.saml.exceptions.InvalidAuthentResponseException;
+import net.identio.saml.exceptions.InvalidSignatureException;
 import net.identio.saml.exceptions.TechnicalException;
+import net.identio.saml.exceptions.UnsignedSAMLObjectException;
+import net.identio.saml.exceptions.UntrustedSignerException;
 import org.codehaus.stax2.XMLInputFactory2;
 import org.codehaus.stax2.XMLOutputFactory2;
 
+import java.security.NoSuchAlgorithmException;
+
 /**
  * SAML authentication response builder. This class must be used to generate a
  * SAML response.
@@ -39,6 +44,7 @@ public class AuthentResponseBuilder {
     private String statusMessage;
     private String destination;
     private Assertion assertion;
+    private boolean compactOutput;
 
 
     private static final XMLOutputFactory2 xmlof;
@@ -98,7 +104,9 @@ public class AuthentResponseBuilder {
     }
 
     /**
-     * Defines the assertion of the response
+     * Defines the assertion of the response. The assertion is written when
+     * the response is first converted to a string or signed, so it must not
+     * be modified once the response is built.
      *
      * @param assertion Assertion to embed in the response
      */
@@ -107,6 +115,19 @@ public class AuthentResponseBuilder {
         return this;
     }
 
+    /**
+     * Defines if the generated response should be in compact form: unused and
+     * inherited namespace declarations, optional informative elements and the
+     * XML declaration are omitted
+     *
+     * @param compactOutput True if the output should be compact
+     * @return The current AuthentResponseBuilder
+     */
+    public AuthentResponseBuilder setCompactOutput(boolean compactOutput) {
+        this.compactOutput = compactOutput;
+        return this;
+    }
+
     /**
      * Build a response
      *
@@ -116,6 +137,7 @@ public class AuthentResponseBuilder {
     public AuthentResponse build() throws TechnicalException {
 
         AuthentResponse ar = new AuthentResponse();
+        ar.compact = compactOutput;
         ar.init(xmlof, version, issuer, status, statusMessage, destination, assertion);
         return ar;
     }
@@ -137,4 +159,43 @@ public class AuthentResponseBuilder {
         return ar;
     }
 
+    /**
+     * Build a response from its raw bytes and validate it in a single pass.
+     * The signatures are verified while the response is parsed, then the
+     * time conditions of the embedded assertion are checked. This replaces
+     * the sequence of {@link #build(String)},
+     * {@link Validator#validate(SignableSAMLObject)} and
+     * {@link Validator#checkConditions(Assertion)}, with the same signature
+     * structure checks. A response whose signatures can't be verified while
+     * it is parsed, such as a response signed along with its assertion, is
+     * validated on its DOM, see {@link Validator#validateResponse(byte[])}.
+     * <p>
+     * As for {@link #build(String)}, the values defined on the builder are
+     * not used: the response is entirely read from its bytes.
+     *
+     * @param response  Bytes of the response, UTF-8 encoded
+     * @param validator Validator holding the trusted certificates of the issuer
+     * @return Validated response
+     * @throws TechnicalException              Thrown when something went wrong when validating the response
+     * @throws InvalidAuthentResponseException Thrown when the response doesn't have the awaited format
+     * @throws UnsignedSAMLObjectException     Thrown when the response is not signed
+     * @throws UntrustedSignerException        Thrown if the signer is not trusted
+     * @throws InvalidSignatureException       Thrown when a signature is invalid
+     * @throws NoSuchAlgorithmException        Thrown when the signing algorithm is not supported
+     * @throws InvalidAssertionException       Thrown if the usage conditions of the assertion are not met
+     */
+    public AuthentResponse build(byte[] response, Validator validator)
+            throws TechnicalException, InvalidAuthentResponseException, UnsignedSAMLObjectException,
+            UntrustedSignerException, InvalidSignatureException, NoSuchAlgorithmException,
+            InvalidAssertionException {
+
+        AuthentResponse ar = validator.validateResponse(response);
+
+        if (ar.getAssertion() != null) {
+            validator.checkConditions(ar.getAssertion());
+        }
+
+        return ar;
+    }
+
 }
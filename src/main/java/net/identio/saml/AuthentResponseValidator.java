@@ -0,0 +1,348 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+
+package net.identio.saml;
+
+import net.identio.saml.exceptions.InvalidAssertionException;
+import net.identio.saml.exceptions.InvalidAuthentResponseException;
+import net.identio.saml.exceptions.InvalidSignatureException;
+import net.identio.saml.exceptions.TechnicalException;
+import net.identio.saml.exceptions.UnsignedSAMLObjectException;
+import net.identio.saml.exceptions.UntrustedSignerException;
+import net.identio.saml.utils.Assert;
+import org.codehaus.stax2.XMLInputFactory2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+
+/**
+ * Validation pipeline of inbound SAML authentication responses. The checks
+ * that don't need any cryptography run first, on the values read by a plain
+ * parse of the response: structure of the signatures, issuer, destination
+ * and recipient, time conditions, audience, replay and presence of a
+ * signature. The signatures are only
+ * verified when all these checks pass, so that invalid responses cost a
+ * parse and not a signature verification.
+ * <p>
+ * Each check is enabled by defining its expected value. The time conditions
+ * and the signature presence are always checked.
+ *
+ * @author Loeiz TANGUY
+ */
+public class AuthentResponseValidator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuthentResponseValidator.class);
+
+    private Validator validator;
+    private ValidatorRegistry validatorRegistry;
+    private HashSet<String> expectedIssuers;
+    private String expectedDestination;
+    private String expectedAudience;
+    private ReplayCache replayCache;
+    private final ArrayList<ResponseCheck> checks = new ArrayList<>();
+
+    private static final XMLInputFactory2 xmlif;
+
+    static {
+        xmlif = (XMLInputFactory2) XMLInputFactory2.newInstance();
+
+        // Configure factories
+        xmlif.setProperty(XMLInputFactory2.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+        xmlif.setProperty(XMLInputFactory2.SUPPORT_DTD, Boolean.FALSE);
+        xmlif.setProperty(XMLInputFactory2.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        xmlif.setProperty(XMLInputFactory2.IS_COALESCING, Boolean.FALSE);
+        xmlif.configureForSpeed();
+    }
+
+    protected AuthentResponseValidator() {
+    }
+
+    public static AuthentResponseValidator getInstance() {
+        return new AuthentResponseValidator();
+    }
+
+    /**
+     * Defines the validator used to verify the signatures of the responses
+     *
+     * @param validator Validator holding the trusted certificates of the issuer
+     * @return The current AuthentResponseValidator
+     */
+    public AuthentResponseValidator setValidator(Validator validator) {
+        Assert.notNull(validator, "Validator can't be null");
+        this.validator = validator;
+        return this;
+    }
+
+    /**
+     * Defines the registry resolving the validator of a response from its
+     * issuer. Only used when no validator is defined.
+     *
+     * @param validatorRegistry Registry of the validators of the identity providers
+     * @return The current AuthentResponseValidator
+     */
+    public AuthentResponseValidator setValidatorRegistry(ValidatorRegistry validatorRegistry) {
+        Assert.notNull(validatorRegistry, "Validator registry can't be null");
+        this.validatorRegistry = validatorRegistry;
+        return this;
+    }
+
+    /**
+     * Defines the accepted issuers of the responses
+     *
+     * @param issuers Entity IDs of the accepted issuers
+     * @return The current AuthentResponseValidator
+     */
+    public AuthentResponseValidator setExpectedIssuers(Collection<String> issuers) {
+        this.expectedIssuers = issuers == null ? null : new HashSet<>(issuers);
+        return this;
+    }
+
+    /**
+     * Defines the expected destination of the responses, also checked against
+     * the recipient of the subject confirmation
+     *
+     * @param destination URL of the assertion consumer service
+     * @return The current AuthentResponseValidator
+     */
+    public AuthentResponseValidator setExpectedDestination(String destination) {
+        this.expectedDestination = destination;
+        return this;
+    }
+
+    /**
+     * Defines the expected audience of the assertions
+     *
+     * @param audience Entity ID of the service provider
+     * @return The current AuthentResponseValidator
+     */
+    public AuthentResponseValidator setExpectedAudience(String audience) {
+        this.expectedAudience = audience;
+        return this;
+    }
+
+    /**
+     * Defines the cache of the identifiers of the responses already accepted
+     *
+     * @param replayCache Replay cache to use
+     * @return The current AuthentResponseValidator
+     */
+    public AuthentResponseValidator setReplayCache(ReplayCache replayCache) {
+        this.replayCache = replayCache;
+        return this;
+    }
+
+    /**
+     * Add a check run before the signatures are verified, after the built-in
+     * checks
+     *
+     * @param check Check to add
+     * @return The current AuthentResponseValidator
+     */
+    public AuthentResponseValidator addCheck(ResponseCheck check) {
+        Assert.notNull(check, "Check can't be null");
+        checks.add(check);
+        return this;
+    }
+
+    /**
+     * Validate a response
+     *
+     * @param response Bytes of the response, UTF-8 encoded
+     * @return Validated response
+     * @throws TechnicalException              Thrown when something went wrong when validating the response
+     * @throws InvalidAuthentResponseException Thrown when the response doesn't have the awaited format or
+     *                                         values
+     * @throws InvalidAssertionException       Thrown if the usage conditions of the assertion are not met
+     * @throws UnsignedSAMLObjectException     Thrown when the response is not signed
+     * @throws UntrustedSignerException        Thrown if the issuer or the signer is not trusted
+     * @throws InvalidSignatureException       Thrown when a signature is invalid
+     * @throws NoSuchAlgorithmException        Thrown when the signing algorithm is not supported
+     */
+    public AuthentResponse validate(byte[] response)
+            throws TechnicalException, InvalidAuthentResponseException, InvalidAssertionException,
+            UnsignedSAMLObjectException, UntrustedSignerException, InvalidSignatureException,
+            NoSuchAlgorithmException {
+
+        if (validator == null && validatorRegistry == null) {
+            throw new IllegalArgumentException("Validator or validator registry must be defined");
+        }
+
+        LOG.debug("Starting validation of the Authentication Response...");
+
+        // Cheap checks, on the unverified values. The structure of the
+        // signatures is checked by the parse.
+        AuthentResponse unverified = parse(response);
+
+        Validator issuerValidator = validator != null ? validator : validatorRegistry.getValidator(unverified);
+
+        if (issuerValidator == null) {
+            throw new UntrustedSignerException("Unknown issuer: " + unverified.getIssuer());
+        }
+
+        checkValues(issuerValidator, unverified);
+
+        if (replayCache != null && replayCache.contains(unverified.getID())) {
+            throw new InvalidAuthentResponseException("Response has already been received");
+        }
+
+        if (!unverified.isSigned()
+                && (unverified.getAssertion() == null || !unverified.getAssertion().isSigned())) {
+            throw new UnsignedSAMLObjectException("Cannot find Signature element");
+        }
+
+        for (ResponseCheck check : checks) {
+            check.check(unverified);
+        }
+
+        // Cryptographic checks
+        AuthentResponse ar = issuerValidator.validateResponse(response);
+
+        // Both parses read the same bytes, the checks are repeated on the
+        // verified values as they cost nothing compared to the signatures
+        if (!Objects.equals(unverified.getIssuer(), ar.getIssuer())) {
+            throw new UntrustedSignerException("Unknown issuer: " + ar.getIssuer());
+        }
+
+        checkValues(issuerValidator, ar);
+
+        // The identifier is only recorded once the response is authenticated
+        if (replayCache != null && !replayCache.add(ar.getID(), getExpiration(ar))) {
+            throw new InvalidAuthentResponseException("Response has already been received");
+        }
+
+        LOG.debug("Authentication Response validated.");
+
+        return ar;
+    }
+
+    private static AuthentResponse parse(byte[] response) throws TechnicalException, InvalidAuthentResponseException,
+            InvalidSignatureException {
+
+        try {
+
+            // The structure of the signatures is checked during the parse
+            XMLStreamReader parser = new SignatureStructureReader(
+                    xmlif.createXMLStreamReader(new ByteArrayInputStream(response)));
+
+            AuthentResponse ar = new AuthentResponse();
+            ar.init(parser, new String(response, StandardCharsets.UTF_8));
+
+            parser.close();
+
+            return ar;
+
+        } catch (XMLStreamException e) {
+            throw checkStructureFailure(new TechnicalException("Error when parsing AuthnResponse", e));
+        } catch (TechnicalException e) {
+            throw checkStructureFailure(e);
+        }
+    }
+
+    private static TechnicalException checkStructureFailure(TechnicalException e) throws InvalidSignatureException {
+
+        InvalidSignatureException structureFailure = SignatureStructureReader.getStructureFailure(e);
+
+        if (structureFailure != null) {
+            throw structureFailure;
+        }
+
+        return e;
+    }
+
+    private void checkValues(Validator issuerValidator, AuthentResponse ar) throws UntrustedSignerException, InvalidAuthentResponseException,
+            InvalidAssertionException {
+
+        if (expectedIssuers != null && !expectedIssuers.contains(ar.getIssuer())) {
+            throw new UntrustedSignerException("Unknown issuer: " + ar.getIssuer());
+        }
+
+        if (expectedDestination != null && !expectedDestination.equals(ar.getDestination())) {
+            throw new InvalidAuthentResponseException("Invalid destination: " + ar.getDestination());
+        }
+
+        Assertion assertion = ar.getAssertion();
+
+        if (assertion == null) {
+            return;
+        }
+
+        if (expectedDestination != null && assertion.getRecipient() != null
+                && !expectedDestination.equals(assertion.getRecipient())) {
+            throw new InvalidAssertionException("Invalid recipient: " + assertion.getRecipient());
+        }
+
+        issuerValidator.checkConditions(assertion);
+
+        if (expectedAudience != null && !expectedAudience.equals(assertion.getAudienceRestriction())) {
+            throw new InvalidAssertionException("Invalid audience: " + assertion.getAudienceRestriction());
+        }
+    }
+
+    private static Instant getExpiration(AuthentResponse ar) {
+        return ar.getAssertion() != null ? ar.getAssertion().getNotOnOrAfter() : null;
+    }
+
+    /**
+     * Cache of the identifiers of the accepted responses
+     */
+    public interface ReplayCache {
+
+        /**
+         * Check if a response has already been accepted
+         *
+         * @param id Identifier of the response
+         * @return True if the identifier is in the cache
+         */
+        boolean contains(String id);
+
+        /**
+         * Record an accepted response
+         *
+         * @param id         Identifier of the response
+         * @param expiration Instant after which the identifier can be forgotten, or null if unknown
+         * @return False if the identifier was already in the cache
+         */
+        boolean add(String id, Instant expiration);
+    }
+
+    /**
+     * Check run on a response before its signatures are verified
+     */
+    @FunctionalInterface
+    public interface ResponseCheck {
+
+        /**
+         * Check a response
+         *
+         * @param response Response to check, whose signatures are not verified yet
+         * @throws InvalidAuthentResponseException Thrown when the response is rejected
+         */
+        void check(AuthentResponse response) throws InvalidAuthentResponseException;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+
+package net.identio.saml;
+
+import java.io.ByteArrayOutputStream;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.SignatureSpi;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.DSAKey;
+import java.security.interfaces.DSAParams;
+import java.security.interfaces.DSAPublicKey;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * JCA provider forwarding the signatures to a signing backend. It is handed
+ * to the XML signature API, which then sends the canonicalized SignedInfo to
+ * the backend instead of signing it with a local private key.
+ *
+ * @author Loeiz TANGUY
+ */
+final class BackendSignatureProvider extends Provider {
+
+    private static final long serialVersionUID = 1L;
+
+    static final BackendSignatureProvider INSTANCE = new BackendSignatureProvider();
+
+    // The (String, String, String) constructor only exists since Java 9
+    @SuppressWarnings("deprecation")
+    private BackendSignatureProvider() {
+        super("IdentioSigningBackend", 1.0, "Signatures delegated to a signing backend");
+
+        for (List<String> otherInformations : SamlConstants.SUPPORTED_ALGORITHMS.values()) {
+            String algorithm = otherInformations.get(1);
+
+            if (getService("Signature", algorithm) == null) {
+                putService(new BackendService(this, algorithm));
+            }
+        }
+    }
+
+    /**
+     * Build the handle of a backend key, standing for the private key of a
+     * certificate
+     *
+     * @param backend     Signing backend
+     * @param keyId       Identifier of the key in the backend
+     * @param certificate Certificate of the key
+     * @return Key handle
+     */
+    static BackendKey newKey(SigningBackend backend, String keyId, X509Certificate certificate) {
+
+        PublicKey publicKey = certificate.getPublicKey();
+
+        // DSA signatures are converted using the key parameters
+        if (publicKey instanceof DSAPublicKey) {
+            return new DSABackendKey(backend, keyId, publicKey.getAlgorithm(), ((DSAPublicKey) publicKey).getParams());
+        }
+
+        return new BackendKey(backend, keyId, publicKey.getAlgorithm());
+    }
+
+    /**
+     * Wait for the result of a backend signature
+     *
+     * @param signature Pending signature
+     * @return The signature
+     * @throws SignatureException Thrown when the backend failed to sign
+     */
+    static byte[] await(CompletableFuture<byte[]> signature) throws SignatureException {
+
+        try {
+            return signature.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SignatureException("Interrupted when waiting for the signing backend", e);
+        } catch (ExecutionException e) {
+            throw new SignatureException("Signing backend failed to sign", e.getCause());
+        }
+    }
+
+    private static final class BackendService extends Provider.Service {
+
+        private BackendService(Provider provider, String algorithm) {
+            super(provider, "Signature", algorithm, BackendSignatureSpi.class.getName(), null, null);
+        }
+
+        @Override
+        public Object newInstance(Object constructorParameter) {
+            return new BackendSignatureSpi(getAlgorithm());
+        }
+
+        @Override
+        public boolean supportsParameter(Object parameter) {
+            return parameter instanceof BackendKey;
+        }
+    }
+
+    /**
+     * Handle of a private key held by a signing backend
+     */
+    static class BackendKey implements PrivateKey {
+
+        private static final long serialVersionUID = 1L;
+
+        final transient SigningBackend backend;
+        final String keyId;
+        private final String algorithm;
+
+        private BackendKey(SigningBackend backend, String keyId, String algorithm) {
+            this.backend = backend;
+            this.keyId = keyId;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public String getFormat() {
+            return null;
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "Signing backend key " + keyId;
+        }
+    }
+
+    private static final class DSABackendKey extends BackendKey implements DSAKey {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient DSAParams params;
+
+        private DSABackendKey(SigningBackend backend, String keyId, String algorithm, DSAParams params) {
+            super(backend, keyId, algorithm);
+            this.params = params;
+        }
+
+        @Override
+        public DSAParams getParams() {
+            return params;
+        }
+    }
+
+    private static final class BackendSignatureSpi extends SignatureSpi {
+
+        private final String algorithm;
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream(1024);
+        private BackendKey key;
+
+        private BackendSignatureSpi(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        protected void engineInitSign(PrivateKey privateKey) throws InvalidKeyException {
+
+            if (!(privateKey instanceof BackendKey)) {
+                throw new InvalidKeyException("Key is not held by a signing backend");
+            }
+
+            key = (BackendKey) privateKey;
+            data.reset();
+        }
+
+        @Override
+        protected void engineInitVerify(PublicKey publicKey) throws InvalidKeyException {
+            throw new InvalidKeyException("Signing backends don't verify signatures");
+        }
+
+        @Override
+        protected void engineUpdate(byte b) {
+            data.write(b);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] b, int off, int len) {
+            data.write(b, off, len);
+        }
+
+        @Override
+        protected byte[] engineSign() throws SignatureException {
+
+            if (key == null) {
+                throw new SignatureException("Signature not initialized");
+            }
+
+            byte[] toSign = data.toByteArray();
+            data.reset();
+
+            return await(key.backend.sign(key.keyId, algorithm, toSign));
+        }
+
+        @Override
+        protected boolean engineVerify(byte[] sigBytes) throws SignatureException {
+            throw new SignatureException("Signing backends don't verify signatures");
+        }
+
+        @Override
+        @Deprecated
+        protected void engineSetParameter(String param, Object value) {
+            throw new InvalidParameterException("No parameter supported");
+        }
+
+        @Override
+        @Deprecated
+        protected Object engineGetParameter(String param) {
+            throw new InvalidParameterException("No parameter supported");
+        }
+    }
+}
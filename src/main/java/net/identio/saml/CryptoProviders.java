@@ -0,0 +1,198 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+
+package net.identio.saml;
+
+import net.identio.saml.utils.Assert;
+
+import javax.xml.crypto.XMLCryptoContext;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JCA providers used by the signers and validators. Each operation can use a
+ * specific provider; when none is defined, the JVM provider selection is used.
+ * <p>
+ * The signature provider is used for the redirect binding signatures and for
+ * the SignatureMethod of XML signatures. The digest provider is used for
+ * certificate digests. The XML signature provider supplies the
+ * XMLSignatureFactory, which also computes the Reference digests and the
+ * canonicalization of XML signatures.
+ * <p>
+ * The configuration must not be modified once it has been given to a Signer
+ * or a Validator.
+ *
+ * @author Loeiz TANGUY
+ */
+public class CryptoProviders {
+
+    static final String DOM_SIGNATURE_PROVIDER = "org.jcp.xml.dsig.internal.dom.SignatureProvider";
+
+    // DOM XMLSignatureFactory of each provider. The DOM factories only build
+    // new structures and keep no state of their own, so a single instance
+    // per provider is shared by all signers and validators.
+    private static final ConcurrentHashMap<Provider, XMLSignatureFactory> signatureFactories =
+            new ConcurrentHashMap<>();
+
+    private Provider signatureProvider;
+    private Provider digestProvider;
+    private Provider xmlSignatureProvider;
+
+    protected CryptoProviders() {
+    }
+
+    public static CryptoProviders getInstance() {
+        return new CryptoProviders();
+    }
+
+    /**
+     * Defines the provider of the Signature instances
+     *
+     * @param provider Provider to use
+     * @return The current CryptoProviders
+     */
+    public CryptoProviders setSignatureProvider(Provider provider) {
+        this.signatureProvider = provider;
+        return this;
+    }
+
+    /**
+     * Defines the provider of the Signature instances, by name
+     *
+     * @param providerName Name of an installed provider
+     * @return The current CryptoProviders
+     */
+    public CryptoProviders setSignatureProvider(String providerName) {
+        this.signatureProvider = findProvider(providerName);
+        return this;
+    }
+
+    /**
+     * Defines the provider of the MessageDigest instances
+     *
+     * @param provider Provider to use
+     * @return The current CryptoProviders
+     */
+    public CryptoProviders setDigestProvider(Provider provider) {
+        this.digestProvider = provider;
+        return this;
+    }
+
+    /**
+     * Defines the provider of the MessageDigest instances, by name
+     *
+     * @param providerName Name of an installed provider
+     * @return The current CryptoProviders
+     */
+    public CryptoProviders setDigestProvider(String providerName) {
+        this.digestProvider = findProvider(providerName);
+        return this;
+    }
+
+    /**
+     * Defines the provider of the DOM XMLSignatureFactory
+     *
+     * @param provider Provider to use
+     * @return The current CryptoProviders
+     */
+    public CryptoProviders setXmlSignatureProvider(Provider provider) {
+        this.xmlSignatureProvider = provider;
+        return this;
+    }
+
+    /**
+     * Defines the provider of the DOM XMLSignatureFactory, by name
+     *
+     * @param providerName Name of an installed provider
+     * @return The current CryptoProviders
+     */
+    public CryptoProviders setXmlSignatureProvider(String providerName) {
+        this.xmlSignatureProvider = findProvider(providerName);
+        return this;
+    }
+
+    /**
+     * Get a Signature instance from the configured provider
+     *
+     * @param algorithm JCA name of the signature algorithm
+     * @return A new Signature instance
+     * @throws NoSuchAlgorithmException Thrown when the provider doesn't support the algorithm
+     */
+    public Signature getSignature(String algorithm) throws NoSuchAlgorithmException {
+        return signatureProvider == null ? Signature.getInstance(algorithm) :
+                Signature.getInstance(algorithm, signatureProvider);
+    }
+
+    /**
+     * Get a MessageDigest instance from the configured provider
+     *
+     * @param algorithm JCA name of the digest algorithm
+     * @return A new MessageDigest instance
+     * @throws NoSuchAlgorithmException Thrown when the provider doesn't support the algorithm
+     */
+    public MessageDigest getMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+        return digestProvider == null ? MessageDigest.getInstance(algorithm) :
+                MessageDigest.getInstance(algorithm, digestProvider);
+    }
+
+    /**
+     * Get the DOM XMLSignatureFactory of the configured provider. The same
+     * instance is returned for a given provider, and can be used by several
+     * threads.
+     *
+     * @return A XMLSignatureFactory instance
+     */
+    public XMLSignatureFactory getXMLSignatureFactory() {
+
+        if (xmlSignatureProvider != null) {
+            return signatureFactories.computeIfAbsent(xmlSignatureProvider,
+                    provider -> XMLSignatureFactory.getInstance("DOM", provider));
+        }
+
+        // The provider selected by the JVM can change as providers are installed
+        XMLSignatureFactory fac = XMLSignatureFactory.getInstance("DOM");
+
+        return signatureFactories.computeIfAbsent(fac.getProvider(), provider -> fac);
+    }
+
+    /**
+     * Apply the configured signature provider to a signing or validation
+     * context
+     *
+     * @param context Context to configure
+     */
+    public void configure(XMLCryptoContext context) {
+        if (signatureProvider != null) {
+            context.setProperty(DOM_SIGNATURE_PROVIDER, signatureProvider);
+        }
+    }
+
+    private static Provider findProvider(String providerName) {
+
+        Provider provider = Security.getProvider(providerName);
+        Assert.notNull(provider, "Unknown provider: " + providerName);
+
+        return provider;
+    }
+}
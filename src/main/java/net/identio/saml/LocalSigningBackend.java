@@ -0,0 +1,297 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+
+package net.identio.saml;
+
+import net.identio.saml.exceptions.TechnicalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process signing backend, standing for a remote signing service in tests
+ * and benchmarks. The keys are loaded from a keystore and identified by their
+ * alias.
+ * <p>
+ * Requests are queued and processed in batches by a single thread: every
+ * request waiting when a batch starts is part of it, up to the maximum batch
+ * size. A simulated latency is applied once per batch, as a round trip to a
+ * remote service would be.
+ *
+ * @author Loeiz TANGUY
+ */
+public class LocalSigningBackend implements SigningBackend, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalSigningBackend.class);
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    private static final AtomicInteger backendNumber = new AtomicInteger();
+
+    private final HashMap<String, PrivateKey> keys = new HashMap<>();
+    private final HashMap<String, X509Certificate> certificates = new HashMap<>();
+
+    private final long latencyMillis;
+    private final int maxBatchSize;
+
+    private final LinkedBlockingQueue<SigningRequest> requests = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private volatile boolean closed;
+
+    private final AtomicLong batchCount = new AtomicLong();
+
+    // Signature instances, only used by the worker thread
+    private final HashMap<String, Signature> signatures = new HashMap<>();
+
+    /**
+     * Build a local signing backend without latency
+     *
+     * @param keystorePath Keystore Path
+     * @param keystorePass Keystore password
+     * @throws TechnicalException Thrown when the keystore couldn't be loaded
+     */
+    public LocalSigningBackend(String keystorePath, String keystorePass) throws TechnicalException {
+        this(keystorePath, keystorePass, 0, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Build a local signing backend simulating a remote one
+     *
+     * @param keystorePath  Keystore Path
+     * @param keystorePass  Keystore password
+     * @param latencyMillis Simulated round trip latency of a batch, in milliseconds
+     * @param maxBatchSize  Maximum number of signatures per batch
+     * @throws TechnicalException Thrown when the keystore couldn't be loaded
+     */
+    public LocalSigningBackend(String keystorePath, String keystorePass, long latencyMillis, int maxBatchSize)
+            throws TechnicalException {
+
+        if (latencyMillis < 0 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid latency or batch size");
+        }
+
+        LOG.debug("Starting LocalSigningBackend initialization...");
+        LOG.debug("Keystore path: {}", keystorePath);
+        LOG.debug("Latency: {} ms", latencyMillis);
+        LOG.debug("Maximum batch size: {}", maxBatchSize);
+
+        this.latencyMillis = latencyMillis;
+        this.maxBatchSize = maxBatchSize;
+
+        try (FileInputStream ksFis = new FileInputStream(keystorePath)) {
+
+            KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(ksFis, keystorePass.toCharArray());
+
+            Enumeration<String> aliases = ks.aliases();
+
+            while (aliases.hasMoreElements()) {
+
+                String alias = aliases.nextElement();
+
+                if (!ks.isKeyEntry(alias)) {
+                    continue;
+                }
+
+                KeyStore.PrivateKeyEntry keyEntry = (KeyStore.PrivateKeyEntry) ks.getEntry(alias,
+                        new KeyStore.PasswordProtection(keystorePass.toCharArray()));
+
+                keys.put(alias, keyEntry.getPrivateKey());
+                certificates.put(alias, (X509Certificate) keyEntry.getCertificate());
+            }
+
+        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException e) {
+            throw new TechnicalException("Failed to load Keystore: Error when accessing certificate", e);
+        } catch (FileNotFoundException e) {
+            throw new TechnicalException("Failed to load Keystore: file " + keystorePath + " not found.", e);
+        } catch (IOException e) {
+            throw new TechnicalException("Failed to load Keystore: I/O error when opening " + keystorePath, e);
+        } catch (UnrecoverableEntryException e) {
+            throw new TechnicalException("Impossible to load private key from keystore", e);
+        }
+
+        worker = new Thread(this::processRequests, "saml-signing-backend-" + backendNumber.incrementAndGet());
+        worker.setDaemon(true);
+        worker.start();
+
+        LOG.debug("LocalSigningBackend initialized.");
+    }
+
+    /**
+     * Get the certificate of a key of the backend
+     *
+     * @param keyId Identifier of the key
+     * @return The certificate, or null if the key is unknown
+     */
+    public X509Certificate getCertificate(String keyId) {
+        return certificates.get(keyId);
+    }
+
+    /**
+     * Get the number of batches processed since the backend was built
+     *
+     * @return Number of batches
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> sign(String keyId, String algorithm, byte[] data) {
+
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+        if (closed) {
+            future.completeExceptionally(new TechnicalException("Signing backend is closed"));
+            return future;
+        }
+
+        SigningRequest request = new SigningRequest(keyId, algorithm, data, future);
+        requests.add(request);
+
+        // The backend may have been closed between the check and the queuing
+        if (closed && requests.remove(request)) {
+            future.completeExceptionally(new TechnicalException("Signing backend is closed"));
+        }
+
+        return future;
+    }
+
+    /**
+     * Stop the backend. Pending requests fail.
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+        worker.interrupt();
+
+        SigningRequest request;
+        while ((request = requests.poll()) != null) {
+            request.future.completeExceptionally(new TechnicalException("Signing backend is closed"));
+        }
+    }
+
+    private void processRequests() {
+
+        ArrayList<SigningRequest> batch = new ArrayList<>(maxBatchSize);
+
+        while (!closed) {
+
+            try {
+                SigningRequest first = requests.poll(1, TimeUnit.SECONDS);
+
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                requests.drainTo(batch, maxBatchSize - 1);
+
+                batchCount.incrementAndGet();
+                LOG.debug("Processing batch of {} signatures", batch.size());
+
+                // One round trip per batch
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+
+                for (SigningRequest request : batch) {
+                    process(request);
+                }
+
+            } catch (InterruptedException e) {
+                for (SigningRequest request : batch) {
+                    request.future.completeExceptionally(new TechnicalException("Signing backend is closed"));
+                }
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void process(SigningRequest request) {
+
+        PrivateKey key = keys.get(request.keyId);
+
+        if (key == null) {
+            request.future.completeExceptionally(new TechnicalException("Unknown key: " + request.keyId));
+            return;
+        }
+
+        String signatureKey = request.keyId + "#" + request.algorithm;
+
+        try {
+            Signature signature = signatures.get(signatureKey);
+
+            if (signature == null) {
+                signature = Signature.getInstance(request.algorithm);
+                signature.initSign(key);
+                signatures.put(signatureKey, signature);
+            }
+
+            try {
+                signature.update(request.data);
+                request.future.complete(signature.sign());
+            } catch (GeneralSecurityException e) {
+                signatures.remove(signatureKey);
+                throw e;
+            }
+
+        } catch (GeneralSecurityException e) {
+            request.future.completeExceptionally(new TechnicalException("Error when generating signature", e));
+        }
+    }
+
+    private static final class SigningRequest {
+
+        private final String keyId;
+        private final String algorithm;
+        private final byte[] data;
+        private final CompletableFuture<byte[]> future;
+
+        private SigningRequest(String keyId, String algorithm, byte[] data, CompletableFuture<byte[]> future) {
+            this.keyId = keyId;
+            this.algorithm = algorithm;
+            this.data = data;
+            this.future = future;
+        }
+    }
+}
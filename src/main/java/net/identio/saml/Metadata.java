@@ -32,6 +32,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -376,7 +377,11 @@ public class Metadata extends SignableSAMLObject {
             xmlw.setPrefix("ds", SamlConstants.XMLDSIG_NS);
             xmlw.writeStartElement(SamlConstants.METADATA_NS, "EntityDescriptor");
             xmlw.writeNamespace("md", SamlConstants.METADATA_NS);
-            xmlw.writeNamespace("ds", SamlConstants.XMLDSIG_NS);
+
+            // The ds namespace is only used by the signing certificates
+            if (!compact || hasSigningCertificates(idpSsoDescriptors, spSsoDescriptors)) {
+                xmlw.writeNamespace("ds", SamlConstants.XMLDSIG_NS);
+            }
 
             xmlw.writeAttribute("ID", id);
             xmlw.writeAttribute("entityID", entityID);
@@ -403,9 +408,11 @@ public class Metadata extends SignableSAMLObject {
                             xmlw.writeStartElement(SamlConstants.XMLDSIG_NS, "X509Certificate");
                             xmlw.writeCharacters(Base64.getEncoder().encodeToString(cert.getEncoded()).replaceAll("\n", ""));
                             xmlw.writeEndElement();
-                            xmlw.writeStartElement(SamlConstants.XMLDSIG_NS, "X509SubjectName");
-                            xmlw.writeCharacters(cert.getSubjectDN().toString());
-                            xmlw.writeEndElement();
+                            if (!compact) {
+                                xmlw.writeStartElement(SamlConstants.XMLDSIG_NS, "X509SubjectName");
+                                xmlw.writeCharacters(cert.getSubjectDN().toString());
+                                xmlw.writeEndElement();
+                            }
                             xmlw.writeEndElement();
                             xmlw.writeEndElement();
                             xmlw.writeEndElement();
@@ -462,9 +469,11 @@ public class Metadata extends SignableSAMLObject {
                             xmlw.writeStartElement(SamlConstants.XMLDSIG_NS, "X509Certificate");
                             xmlw.writeCharacters(Base64.getEncoder().encodeToString(cert.getEncoded()).replaceAll("\n", ""));
                             xmlw.writeEndElement();
-                            xmlw.writeStartElement(SamlConstants.XMLDSIG_NS, "X509SubjectName");
-                            xmlw.writeCharacters(cert.getSubjectDN().toString());
-                            xmlw.writeEndElement();
+                            if (!compact) {
+                                xmlw.writeStartElement(SamlConstants.XMLDSIG_NS, "X509SubjectName");
+                                xmlw.writeCharacters(cert.getSubjectDN().toString());
+                                xmlw.writeEndElement();
+                            }
                             xmlw.writeEndElement();
                             xmlw.writeEndElement();
                             xmlw.writeEndElement();
@@ -537,6 +546,30 @@ public class Metadata extends SignableSAMLObject {
 
     }
 
+    private static boolean hasSigningCertificates(List<IdpSsoDescriptor> idpSsoDescriptors,
+                                                  List<SpSsoDescriptor> spSsoDescriptors) {
+
+        if (idpSsoDescriptors != null) {
+            for (IdpSsoDescriptor descriptor : idpSsoDescriptors) {
+                List<X509Certificate> certs = descriptor.getSigningCertificates();
+                if (certs != null && !certs.isEmpty()) {
+                    return true;
+                }
+            }
+        }
+
+        if (spSsoDescriptors != null) {
+            for (SpSsoDescriptor descriptor : spSsoDescriptors) {
+                List<X509Certificate> certs = descriptor.getSigningCertificates();
+                if (certs != null && !certs.isEmpty()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Displays the metadata in a human readable format
      *
@@ -558,6 +591,10 @@ public class Metadata extends SignableSAMLObject {
 
             transformer = tf.newTransformer();
 
+            if (compact) {
+                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            }
+
             transformer.transform(domSource, result);
 
             writer.flush();
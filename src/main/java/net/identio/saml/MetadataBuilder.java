@@ -44,6 +44,7 @@ public class MetadataBuilder {
 
     private List<IdpSsoDescriptor> idpSsoDescriptors;
     private List<SpSsoDescriptor> spSsoDescriptors;
+    private boolean compactOutput;
 
     private static final XMLOutputFactory2 xmlof;
     private static final XMLInputFactory2 xmlif;
@@ -111,6 +112,19 @@ public class MetadataBuilder {
         return this;
     }
 
+    /**
+     * Defines if the generated metadata should be in compact form: unused and
+     * inherited namespace declarations, optional informative elements and the
+     * XML declaration are omitted
+     *
+     * @param compactOutput True if the output should be compact
+     * @return The current MetadataBuilder
+     */
+    public MetadataBuilder setCompactOutput(boolean compactOutput) {
+        this.compactOutput = compactOutput;
+        return this;
+    }
+
     /**
      * Build the metadata
      *
@@ -120,6 +134,7 @@ public class MetadataBuilder {
     public Metadata build() throws TechnicalException {
 
         Metadata metadata = new Metadata();
+        metadata.compact = compactOutput;
 
         metadata.init(xmlof, entityID, organizationName, organizationDisplayName, organizationURL, contactName,
                 contactEmail, idpSsoDescriptors, spSsoDescriptors);
@@ -0,0 +1,336 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+
+package net.identio.saml;
+
+import net.identio.saml.exceptions.TechnicalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Writer of the HTTP-POST binding auto-submit form. The form, the escaped
+ * RelayState and the Base64-encoded message are streamed directly to the
+ * output through a buffer reused by each thread: no full-page String is
+ * built.
+ *
+ * @author Loeiz TANGUY
+ */
+public class PostBindingWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PostBindingWriter.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final byte[] FORM_START = ascii("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"/></head>"
+            + "<body onload=\"document.forms[0].submit()\">"
+            + "<noscript><p>Since your browser does not support JavaScript, please click Continue.</p></noscript>"
+            + "<form method=\"post\" action=\"");
+    private static final byte[] MESSAGE_START = ascii("\"><input type=\"hidden\" name=\"");
+    private static final byte[] VALUE_START = ascii("\" value=\"");
+    private static final byte[] RELAY_STATE_START = ascii("\"/><input type=\"hidden\" name=\"RelayState\" value=\"");
+    private static final byte[] FORM_END = ascii("\"/><noscript><input type=\"submit\" value=\"Continue\"/></noscript>"
+            + "</form></body></html>");
+
+    private static final byte[] AMP = ascii("&amp;");
+    private static final byte[] LT = ascii("&lt;");
+    private static final byte[] GT = ascii("&gt;");
+    private static final byte[] QUOT = ascii("&quot;");
+    private static final byte[] APOS = ascii("&#39;");
+
+    private static final ThreadLocal<FormOutput> OUTPUTS = ThreadLocal.withInitial(FormOutput::new);
+
+    private String destination;
+    private String relayState;
+
+    protected PostBindingWriter() {
+    }
+
+    public static PostBindingWriter getInstance() {
+        return new PostBindingWriter();
+    }
+
+    /**
+     * Defines the URL the form is posted to. By default, the destination of
+     * the message is used.
+     *
+     * @param destination Destination URL
+     * @return The current PostBindingWriter
+     */
+    public PostBindingWriter setDestination(String destination) {
+        this.destination = destination;
+        return this;
+    }
+
+    /**
+     * Defines the optional RelayState posted with the message
+     *
+     * @param relayState RelayState value
+     * @return The current PostBindingWriter
+     */
+    public PostBindingWriter setRelayState(String relayState) {
+        this.relayState = relayState;
+        return this;
+    }
+
+    /**
+     * Write the auto-submit form of a message to an output stream. The stream
+     * is not closed.
+     *
+     * @param message AuthentRequest or AuthentResponse to post
+     * @param out     Output stream
+     * @throws TechnicalException Thrown when something went wrong when writing the form
+     */
+    public void write(SignableSAMLObject message, OutputStream out) throws TechnicalException {
+        FormOutput output = acquireOutput();
+        output.stream = out;
+        write(message, output);
+    }
+
+    /**
+     * Write the auto-submit form of a message to a blocking channel. The
+     * channel is not closed.
+     *
+     * @param message AuthentRequest or AuthentResponse to post
+     * @param channel Output channel
+     * @throws TechnicalException Thrown when something went wrong when writing the form
+     */
+    public void write(SignableSAMLObject message, WritableByteChannel channel) throws TechnicalException {
+        FormOutput output = acquireOutput();
+        output.channel = channel;
+        write(message, output);
+    }
+
+    private void write(SignableSAMLObject message, FormOutput output) throws TechnicalException {
+
+        LOG.debug("Writing HTTP-POST form...");
+
+        String parameterName;
+        String messageDestination;
+
+        if (message instanceof AuthentResponse) {
+            parameterName = "SAMLResponse";
+            messageDestination = ((AuthentResponse) message).getDestination();
+        } else if (message instanceof AuthentRequest) {
+            parameterName = "SAMLRequest";
+            messageDestination = ((AuthentRequest) message).getDestination();
+        } else {
+            throw new TechnicalException("Only requests and responses can be sent with the HTTP-POST binding");
+        }
+
+        String action = destination != null ? destination : messageDestination;
+
+        if (action == null) {
+            throw new TechnicalException("No destination defined for the HTTP-POST form");
+        }
+
+        try {
+
+            output.write(FORM_START);
+            output.writeEscaped(action);
+            output.write(MESSAGE_START);
+            output.write(parameterName.getBytes(StandardCharsets.US_ASCII));
+            output.write(VALUE_START);
+
+            // The Base64 encoder writes in the form buffer, it doesn't
+            // insert line breaks and its close only flushes the padding
+            try (OutputStream b64 = Base64.getEncoder().wrap(output)) {
+                output.writeUtf8(message.toString(), b64);
+            }
+
+            if (relayState != null) {
+                output.write(RELAY_STATE_START);
+                output.writeEscaped(relayState);
+            }
+
+            output.write(FORM_END);
+            output.drain();
+
+        } catch (IOException e) {
+            throw new TechnicalException("Error when writing HTTP-POST form", e);
+        } finally {
+            output.release();
+        }
+
+        LOG.debug("HTTP-POST form written.");
+    }
+
+    private static FormOutput acquireOutput() {
+
+        FormOutput output = OUTPUTS.get();
+
+        // Reentrant use on the same thread gets its own buffers
+        if (output.inUse) {
+            output = new FormOutput();
+        }
+
+        output.inUse = true;
+        return output;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Buffered output of a form, draining to a stream or a channel
+     */
+    private static final class FormOutput extends OutputStream {
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final byte[] scratch = new byte[BUFFER_SIZE / 2];
+
+        private OutputStream stream;
+        private WritableByteChannel channel;
+        private boolean inUse;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int chunk = Math.min(len, buffer.remaining());
+                buffer.put(b, off, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        @Override
+        public void close() {
+            // The underlying stream or channel is owned by the caller
+        }
+
+        /**
+         * Write a text escaped for an HTML attribute value
+         */
+        private void writeEscaped(String value) throws IOException {
+
+            for (int i = 0; i < value.length(); i++) {
+
+                char c = value.charAt(i);
+
+                switch (c) {
+                    case '&':
+                        write(AMP);
+                        break;
+                    case '<':
+                        write(LT);
+                        break;
+                    case '>':
+                        write(GT);
+                        break;
+                    case '"':
+                        write(QUOT);
+                        break;
+                    case '\'':
+                        write(APOS);
+                        break;
+                    default:
+                        if (c < 0x80) {
+                            write(c);
+                        } else {
+                            // Rare non-ASCII characters, including surrogate pairs
+                            int end = Character.isHighSurrogate(c) && i + 1 < value.length() ? i + 2 : i + 1;
+                            write(value.substring(i, end).getBytes(StandardCharsets.UTF_8));
+                            i = end - 1;
+                        }
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Encode a text in UTF-8 to the given stream, by chunks of the scratch
+         * buffer
+         */
+        private void writeUtf8(String value, OutputStream out) throws IOException {
+
+            int length = 0;
+
+            for (int i = 0; i < value.length(); i++) {
+
+                // Keep room for the longest encoded character
+                if (length > scratch.length - 4) {
+                    out.write(scratch, 0, length);
+                    length = 0;
+                }
+
+                int cp = value.codePointAt(i);
+
+                if (cp < 0x80) {
+                    scratch[length++] = (byte) cp;
+                } else if (cp < 0x800) {
+                    scratch[length++] = (byte) (0xC0 | (cp >> 6));
+                    scratch[length++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (cp < 0x10000) {
+                    scratch[length++] = (byte) (0xE0 | (cp >> 12));
+                    scratch[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    scratch[length++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    scratch[length++] = (byte) (0xF0 | (cp >> 18));
+                    scratch[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    scratch[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    scratch[length++] = (byte) (0x80 | (cp & 0x3F));
+                    i++;
+                }
+            }
+
+            out.write(scratch, 0, length);
+        }
+
+        private void drain() throws IOException {
+
+            buffer.flip();
+
+            if (channel != null) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } else {
+                stream.write(buffer.array(), 0, buffer.limit());
+            }
+
+            buffer.clear();
+        }
+
+        private void release() {
+            buffer.clear();
+            stream = null;
+            channel = null;
+            inUse = false;
+        }
+    }
+}
@@ -41,6 +41,7 @@ public class SamlConstants {
     public static final String PROTOCOL_NS = "urn:oasis:names:tc:SAML:2.0:protocol";
     public static final String METADATA_NS = "urn:oasis:names:tc:SAML:2.0:metadata";
     public static final String XMLDSIG_NS = "http://www.w3.org/2000/09/xmldsig#";
+    public static final String XMLDSIG11_NS = "http://www.w3.org/2009/xmldsig11#";
     public static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
     public static final String XML_SCHEMA_INSTANCE_NS = "http://www.w3.org/2001/XMLSchema-instance";
 
@@ -62,6 +63,7 @@ public class SamlConstants {
     public final static String ATTRIBUTE_TYPE_STRING = "xs:string";
     public final static String ATTRIBUTE_TYPE_INTEGER = "xs:integer";
     public final static String ATTRIBUTE_TYPE_BOOLEAN = "xs:boolean";
+    public final static String ATTRIBUTE_TYPE_BASE64 = "xs:base64Binary";
 
     public static final String STATUS_SUCCESS = "urn:oasis:names:tc:SAML:2.0:status:Success";
     public static final String STATUS_ERROR = "urn:oasis:names:tc:SAML:2.0:status:Responder";
@@ -87,25 +89,37 @@ public class SamlConstants {
     public static final String SIGNATURE_ALG_ECDSA_SHA512 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha512";
     public static final String SIGNATURE_ALG_DSA_SHA1 = "http://www.w3.org/2000/09/xmldsig#dsa-sha1";
     public static final String SIGNATURE_ALG_DSA_SHA256 = "http://www.w3.org/2009/xmldsig11#dsa-sha256";
+    public static final String SIGNATURE_ALG_EDDSA_ED25519 = "http://www.w3.org/2021/04/xmldsig-more#eddsa-ed25519";
+    public static final String SIGNATURE_ALG_EDDSA_ED448 = "http://www.w3.org/2021/04/xmldsig-more#eddsa-ed448";
 
     public static final String SIGNATURE_DIGEST_SHA1 = "http://www.w3.org/2000/09/xmldsig#sha1";
     public static final String SIGNATURE_DIGEST_SHA256 = "http://www.w3.org/2001/04/xmlenc#sha256";
     public static final String SIGNATURE_DIGEST_SHA384 = "http://www.w3.org/2001/04/xmldsig-more#sha384";
     public static final String SIGNATURE_DIGEST_SHA512 = "http://www.w3.org/2001/04/xmlenc#sha512";
 
+    public static final String KEYINFO_X509_CERTIFICATE = "x509-certificate";
+    public static final String KEYINFO_X509_ISSUER_SERIAL = "x509-issuer-serial";
+    public static final String KEYINFO_X509_DIGEST = "x509-digest";
+    public static final String KEYINFO_KEY_NAME = "key-name";
+    public static final String KEYINFO_NONE = "none";
+
     public static final HashMap<String, ArrayList<String>> SUPPORTED_ALGORITHMS;
 
     static {
+        // For each signature method: digest method, JCA signature algorithm
+        // and JCA key algorithm
         SUPPORTED_ALGORITHMS = new HashMap<>();
-        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_RSA_SHA1, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA1, "SHA1withRSA")));
-        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_RSA_SHA256, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA256, "SHA256withRSA")));
-        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_RSA_SHA384, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA384, "SHA384withRSA")));
-        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_RSA_SHA512, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA512, "SHA512withRSA")));
-        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_ECDSA_SHA256, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA256, "SHA256withECDSA")));
-        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_ECDSA_SHA384, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA384, "SHA384withECDSA")));
-        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_ECDSA_SHA512, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA512, "SHA512withECDSA")));
-        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_DSA_SHA1, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA1, "SHA1withDSA")));
-        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_DSA_SHA256, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA256, "SHA256withDSA")));
+        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_RSA_SHA1, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA1, "SHA1withRSA", "RSA")));
+        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_RSA_SHA256, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA256, "SHA256withRSA", "RSA")));
+        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_RSA_SHA384, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA384, "SHA384withRSA", "RSA")));
+        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_RSA_SHA512, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA512, "SHA512withRSA", "RSA")));
+        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_ECDSA_SHA256, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA256, "SHA256withECDSA", "EC")));
+        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_ECDSA_SHA384, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA384, "SHA384withECDSA", "EC")));
+        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_ECDSA_SHA512, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA512, "SHA512withECDSA", "EC")));
+        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_DSA_SHA1, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA1, "SHA1withDSA", "DSA")));
+        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_DSA_SHA256, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA256, "SHA256withDSA", "DSA")));
+        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_EDDSA_ED25519, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA256, "Ed25519", "EdDSA")));
+        SUPPORTED_ALGORITHMS.put(SamlConstants.SIGNATURE_ALG_EDDSA_ED448, new ArrayList<>(Arrays.asList(SamlConstants.SIGNATURE_DIGEST_SHA512, "Ed448", "EdDSA")));
 
     }
 }
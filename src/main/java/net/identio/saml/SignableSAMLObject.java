@@ -18,6 +18,7 @@
 
 package net.identio.saml;
 
+import net.identio.saml.exceptions.TechnicalException;
 import org.w3c.dom.Document;
 
 /**
@@ -30,6 +31,7 @@ public abstract class SignableSAMLObject {
     protected String id;
     protected boolean signed = false;
     protected Document doc;
+    protected boolean compact = false;
 
     public String getId() {
         return id;
@@ -43,4 +45,15 @@ public abstract class SignableSAMLObject {
         return signed;
     }
 
+    /**
+     * Get the DOM representation of the object. Objects generated in a
+     * streamed form build it on first access.
+     *
+     * @return DOM document of the object
+     * @throws TechnicalException Thrown when the DOM document could not be built
+     */
+    protected Document getDocument() throws TechnicalException {
+        return doc;
+    }
+
 }
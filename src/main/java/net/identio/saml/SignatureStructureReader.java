@@ -0,0 +1,245 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package net.identio.saml;
+
+import net.identio.saml.exceptions.InvalidSignatureException;
+
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import java.util.ArrayDeque;
+
+/**
+ * Stream reader checking the structure of the signatures of a document as it
+ * is read, with the same limits as the DOM validation: number of signatures,
+ * references and transforms, allowed transforms and reference URIs. A
+ * signature is rejected before its end element is returned, so before a
+ * streaming signature processor reading from this reader can digest
+ * anything.
+ * <p>
+ * A structure failure is thrown as an XMLStreamException caused by an
+ * InvalidSignatureException, see {@link #getStructureFailure(Throwable)}.
+ *
+ * @author Loeiz TANGUY
+ */
+class SignatureStructureReader extends StreamReaderDelegate {
+
+    // ID attribute and signature element name of each open element, empty
+    // when there is none
+    private final ArrayDeque<String> ids = new ArrayDeque<>();
+    private final ArrayDeque<String> names = new ArrayDeque<>();
+
+    private int signatureCount;
+    private int certifiedSignatureCount;
+
+    // Depth of the signature being read, -1 outside of a signature
+    private int signatureDepth = -1;
+    private boolean rootSignature;
+    private String parentID;
+    private boolean signedInfoFound;
+    private boolean certificateFound;
+    private int referenceCount;
+    private int transformCount;
+
+    SignatureStructureReader(XMLStreamReader reader) {
+        super(reader);
+    }
+
+    /**
+     * Find the structure failure that interrupted the reading of a document
+     *
+     * @param e Exception thrown when reading the document
+     * @return The structure failure, or null if the exception has another cause
+     */
+    static InvalidSignatureException getStructureFailure(Throwable e) {
+
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InvalidSignatureException) {
+                return (InvalidSignatureException) cause;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Tell if the signatures read so far can be verified by a streaming
+     * signature processor: there is at most one, and it carries its
+     * certificate in its KeyInfo
+     *
+     * @return True if the signatures can be verified while streaming
+     */
+    boolean isStreamable() {
+        return signatureCount <= 1 && certifiedSignatureCount == signatureCount;
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+
+        int event = super.next();
+
+        if (event == START_ELEMENT) {
+            startElement();
+        } else if (event == END_ELEMENT) {
+            endElement();
+        }
+
+        return event;
+    }
+
+    // The delegate implementations would bypass next()
+    @Override
+    public int nextTag() throws XMLStreamException {
+
+        int event = next();
+
+        while (event == CHARACTERS && isWhiteSpace() || event == CDATA && isWhiteSpace() || event == SPACE
+                || event == PROCESSING_INSTRUCTION || event == COMMENT) {
+            event = next();
+        }
+
+        if (event != START_ELEMENT && event != END_ELEMENT) {
+            throw new XMLStreamException("Expected a start or end element", getLocation());
+        }
+
+        return event;
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+
+        if (getEventType() != START_ELEMENT) {
+            throw new XMLStreamException("Not positioned on a start element", getLocation());
+        }
+
+        StringBuilder text = new StringBuilder();
+
+        for (int event = next(); event != END_ELEMENT; event = next()) {
+
+            if (event == CHARACTERS || event == CDATA || event == SPACE || event == ENTITY_REFERENCE) {
+                text.append(getText());
+            } else if (event == START_ELEMENT || event == END_DOCUMENT) {
+                throw new XMLStreamException("Unexpected content in a text-only element", getLocation());
+            }
+        }
+
+        return text.toString();
+    }
+
+    private void startElement() throws XMLStreamException {
+
+        int depth = ids.size();
+        String parentName = depth > 0 ? names.peek() : "";
+        String name = XMLSignature.XMLNS.equals(getNamespaceURI()) ? getLocalName() : "";
+
+        if ("Signature".equals(name)) {
+
+            if (++signatureCount > Validator.MAX_SIGNATURES) {
+                fail("Too many signatures in the document");
+            }
+
+            if (signatureDepth < 0) {
+                // An enveloped signature can only reference its parent element
+                signatureDepth = depth;
+                rootSignature = depth == 1;
+                parentID = depth > 0 && !ids.peek().isEmpty() ? ids.peek() : null;
+                signedInfoFound = false;
+                certificateFound = false;
+                referenceCount = 0;
+            }
+
+        } else if (signatureDepth >= 0) {
+
+            int level = depth - signatureDepth;
+
+            if (level == 1 && "SignedInfo".equals(name)) {
+                signedInfoFound = true;
+            } else if (level == 2 && "SignedInfo".equals(parentName) && "Reference".equals(name)) {
+                checkReference();
+            } else if (level == 4 && "Transforms".equals(parentName)) {
+                checkTransform(name);
+            } else if (level == 3 && "X509Data".equals(parentName) && "X509Certificate".equals(name)) {
+                certificateFound = true;
+            }
+        }
+
+        String id = getAttributeValue(null, "ID");
+
+        ids.push(id != null ? id : "");
+        names.push(name);
+    }
+
+    private void endElement() throws XMLStreamException {
+
+        ids.pop();
+        names.pop();
+
+        if (ids.size() != signatureDepth) {
+            return;
+        }
+
+        if (!signedInfoFound) {
+            fail("Cannot find SignedInfo element");
+        }
+        if (referenceCount == 0) {
+            fail("Cannot find Reference element");
+        }
+        if (certificateFound) {
+            certifiedSignatureCount++;
+        }
+
+        signatureDepth = -1;
+    }
+
+    private void checkReference() throws XMLStreamException {
+
+        if (++referenceCount > Validator.MAX_REFERENCES) {
+            fail("Too many references in the signature");
+        }
+
+        String uri = getAttributeValue(null, "URI");
+
+        boolean uriAllowed = uri != null
+                && (rootSignature && "".equals(uri) || parentID != null && uri.equals("#" + parentID));
+
+        if (!uriAllowed) {
+            fail("Reference doesn't point to the signed element: " + uri);
+        }
+
+        transformCount = 0;
+    }
+
+    private void checkTransform(String name) throws XMLStreamException {
+
+        if (++transformCount > Validator.MAX_TRANSFORMS) {
+            fail("Too many transforms in the reference");
+        }
+
+        String algorithm = getAttributeValue(null, "Algorithm");
+
+        if (!"Transform".equals(name) || !Validator.ALLOWED_TRANSFORMS.contains(algorithm)) {
+            fail("Unsupported transform: " + algorithm);
+        }
+    }
+
+    private static void fail(String message) throws XMLStreamException {
+        throw new XMLStreamException(message, new InvalidSignatureException(message));
+    }
+}
@@ -18,13 +18,19 @@
 
 package net.identio.saml;
 
+import net.identio.saml.common.X509KeySelector;
 import net.identio.saml.exceptions.TechnicalException;
+import net.identio.saml.utils.Assert;
+import net.identio.saml.utils.XmlUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import javax.xml.XMLConstants;
 import javax.xml.crypto.MarshalException;
+import javax.xml.crypto.dom.DOMStructure;
 import javax.xml.crypto.dsig.*;
 import javax.xml.crypto.dsig.dom.DOMSignContext;
 import javax.xml.crypto.dsig.keyinfo.KeyInfo;
@@ -33,18 +39,32 @@ import javax.xml.crypto.dsig.keyinfo.X509Data;
 import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
 import javax.xml.crypto.dsig.spec.ExcC14NParameterSpec;
 import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.parsers.ParserConfigurationException;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.security.*;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.X509Certificate;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class to sign a SAML object
@@ -55,15 +75,43 @@ public class Signer {
 
     private static final Logger LOG = LoggerFactory.getLogger(Signer.class);
 
-    private KeyStore.PrivateKeyEntry keyEntry;
-    private KeyInfo ki;
+    // Rough memory footprint of a signer without its keys, and of the
+    // decoded form of a key compared to its encoded form
+    private static final long SIGNER_OVERHEAD = 4096;
+    private static final int DECODED_KEY_FACTOR = 3;
+
+    // Signing structures kept for reuse, per key or per message type: no
+    // more than the threads that can sign at the same time
+    private static final int MAX_POOLED_INSTANCES = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final boolean certificateExpirationCheck;
+    private final String keyInfoMode;
+
+    // Signing keys and their activation schedule. The state is immutable and
+    // replaced as a whole, so signing threads never block and always sign
+    // with a consistent key.
+    private volatile KeyState keyState;
 
     private final String xmlSignatureMethod;
     private final String xmlDigest;
     private final String inLineSignatureMethod;
 
+    // Signing contexts indexed by message type, borrowed for a signature and
+    // returned afterwards. The JSR 105 structures keep marshalling state,
+    // such as the Signature instance of the signature method, so a context
+    // is used by a single thread at a time.
+    private final ConcurrentHashMap<String, ArrayBlockingQueue<SigningContext>> signingContexts =
+            new ConcurrentHashMap<>();
+    private boolean xmlSignatureSupported = true;
+
+    private final CryptoProviders providers;
+
+    // Shared by all the signers using the same provider
+    private final XMLSignatureFactory signatureFactory;
+
     /**
-     * Build a signer
+     * Build a signer. All the keys of the keystore are loaded; the first one
+     * is active.
      *
      * @param keystorePath               Keystore Path
      * @param keystorePass               Keystore password
@@ -73,25 +121,328 @@ public class Signer {
      */
     public Signer(String keystorePath, String keystorePass, boolean certificateExpirationCheck, String signatureMethod)
             throws TechnicalException {
+        this(keystorePath, keystorePass, certificateExpirationCheck, signatureMethod,
+                SamlConstants.KEYINFO_X509_CERTIFICATE);
+    }
+
+    /**
+     * Build a signer with a specific KeyInfo content. Referencing the signing
+     * certificate instead of embedding it reduces the size of every signed
+     * message, but requires the validator to already know the certificate.
+     *
+     * @param keystorePath               Keystore Path
+     * @param keystorePass               Keystore password
+     * @param certificateExpirationCheck True if the certificate expiration check should be done
+     * @param signatureMethod            Signature method to use
+     * @param keyInfoMode                KeyInfo content: one of the SamlConstants.KEYINFO_* values
+     * @throws TechnicalException Thrown when something went wrong when building the Signer
+     */
+    public Signer(String keystorePath, String keystorePass, boolean certificateExpirationCheck, String signatureMethod,
+                  String keyInfoMode) throws TechnicalException {
+        this(keystorePath, keystorePass, certificateExpirationCheck, signatureMethod, keyInfoMode,
+                CryptoProviders.getInstance());
+    }
+
+    /**
+     * Build a signer using specific JCA providers
+     *
+     * @param keystorePath               Keystore Path
+     * @param keystorePass               Keystore password
+     * @param certificateExpirationCheck True if the certificate expiration check should be done
+     * @param signatureMethod            Signature method to use
+     * @param keyInfoMode                KeyInfo content: one of the SamlConstants.KEYINFO_* values
+     * @param providers                  JCA providers to use
+     * @throws TechnicalException Thrown when something went wrong when building the Signer
+     */
+    public Signer(String keystorePath, String keystorePass, boolean certificateExpirationCheck, String signatureMethod,
+                  String keyInfoMode, CryptoProviders providers) throws TechnicalException {
+
+        this(certificateExpirationCheck, signatureMethod, keyInfoMode, providers);
 
-        LOG.debug("Starting Signer initialization...");
         LOG.debug("Keystore path: {}", keystorePath);
+
+        LinkedHashMap<String, SigningKey> keys = loadKeys(keystorePath, keystorePass);
+        SigningKey activeKey = keys.values().iterator().next();
+
+        checkValidity(activeKey, new Date());
+
+        keyState = new KeyState(keys, activeKey.alias, new TreeMap<>(), new HashMap<>());
+
+        LOG.debug("Signer initialized.");
+    }
+
+    /**
+     * Build a signer using a key held by a signing backend
+     *
+     * @param backend                    Signing backend
+     * @param keyId                      Identifier of the key in the backend, used as its alias
+     * @param certificate                Certificate of the key
+     * @param certificateExpirationCheck True if the certificate expiration check should be done
+     * @param signatureMethod            Signature method to use
+     * @throws TechnicalException Thrown when something went wrong when building the Signer
+     */
+    public Signer(SigningBackend backend, String keyId, X509Certificate certificate,
+                  boolean certificateExpirationCheck, String signatureMethod) throws TechnicalException {
+        this(backend, keyId, certificate, certificateExpirationCheck, signatureMethod,
+                SamlConstants.KEYINFO_X509_CERTIFICATE, CryptoProviders.getInstance());
+    }
+
+    /**
+     * Build a signer using a key held by a signing backend, with a specific
+     * KeyInfo content and specific JCA providers
+     *
+     * @param backend                    Signing backend
+     * @param keyId                      Identifier of the key in the backend, used as its alias
+     * @param certificate                Certificate of the key
+     * @param certificateExpirationCheck True if the certificate expiration check should be done
+     * @param signatureMethod            Signature method to use
+     * @param keyInfoMode                KeyInfo content: one of the SamlConstants.KEYINFO_* values
+     * @param providers                  JCA providers to use
+     * @throws TechnicalException Thrown when something went wrong when building the Signer
+     */
+    public Signer(SigningBackend backend, String keyId, X509Certificate certificate,
+                  boolean certificateExpirationCheck, String signatureMethod, String keyInfoMode,
+                  CryptoProviders providers) throws TechnicalException {
+
+        this(certificateExpirationCheck, signatureMethod, keyInfoMode, providers);
+
+        LOG.debug("Signing backend key: {}", keyId);
+
+        SigningKey key = newBackendKey(backend, keyId, certificate);
+
+        checkValidity(key, new Date());
+
+        LinkedHashMap<String, SigningKey> keys = new LinkedHashMap<>();
+        keys.put(keyId, key);
+
+        keyState = new KeyState(keys, keyId, new TreeMap<>(), new HashMap<>());
+
+        LOG.debug("Signer initialized.");
+    }
+
+    private Signer(boolean certificateExpirationCheck, String signatureMethod, String keyInfoMode,
+                   CryptoProviders providers) throws TechnicalException {
+
+        LOG.debug("Starting Signer initialization...");
         LOG.debug("Certificate expiration check: {}", certificateExpirationCheck);
         LOG.debug("Signature method: {}", signatureMethod);
+        LOG.debug("KeyInfo mode: {}", keyInfoMode);
 
         List<String> otherInformations = SamlConstants.SUPPORTED_ALGORITHMS.get(signatureMethod);
 
+        if (otherInformations == null) {
+            throw new TechnicalException("Unsupported signature method: " + signatureMethod);
+        }
+
+        this.providers = providers;
+        this.signatureFactory = providers.getXMLSignatureFactory();
+
+        this.certificateExpirationCheck = certificateExpirationCheck;
+        this.keyInfoMode = keyInfoMode;
         this.xmlSignatureMethod = signatureMethod;
         this.xmlDigest = otherInformations.get(0);
         this.inLineSignatureMethod = otherInformations.get(1);
 
+        // EdDSA is limited to external signatures: the XML signature
+        // providers don't implement its signature methods
+        if ("EdDSA".equals(otherInformations.get(2))) {
+            LOG.debug("{} is only available for the HTTP-Redirect binding", signatureMethod);
+            xmlSignatureSupported = false;
+            return;
+        }
+
+        // Check that the XML signature provider supports the signature
+        // method. If not, the signer can still be used for external
+        // signatures.
+        XMLSignatureFactory fac = signatureFactory;
+
+        try {
+            new SigningContext(fac, SamlConstants.ASSERTION_TYPE, xmlDigest, xmlSignatureMethod);
+        } catch (NoSuchAlgorithmException e) {
+            LOG.warn("XML signature provider {} doesn't support {}: only external signatures are available",
+                    fac.getProvider().getName(), signatureMethod);
+            xmlSignatureSupported = false;
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new TechnicalException("Invalid algorithm parameters", e);
+        }
+    }
+
+    /**
+     * Add the keys of a keystore to the signer. Keys with an already known
+     * alias are replaced. The active key doesn't change.
+     *
+     * @param keystorePath Keystore Path
+     * @param keystorePass Keystore password
+     * @throws TechnicalException Thrown when the keystore couldn't be loaded
+     */
+    public synchronized void addKeys(String keystorePath, String keystorePass) throws TechnicalException {
+
+        LOG.debug("Adding keys from keystore {}", keystorePath);
+
+        LinkedHashMap<String, SigningKey> keys = new LinkedHashMap<>(keyState.keys);
+        keys.putAll(loadKeys(keystorePath, keystorePass));
+
+        keyState = new KeyState(keys, keyState.activeAlias, keyState.activations, keyState.targetAliases);
+    }
+
+    /**
+     * Add a key held by a signing backend to the signer. A key with the same
+     * alias is replaced. The active key doesn't change.
+     *
+     * @param backend     Signing backend
+     * @param keyId       Identifier of the key in the backend, used as its alias
+     * @param certificate Certificate of the key
+     * @throws TechnicalException Thrown when the key can't be used with the signature method
+     */
+    public synchronized void addKey(SigningBackend backend, String keyId, X509Certificate certificate)
+            throws TechnicalException {
+
+        LOG.debug("Adding signing backend key {}", keyId);
+
+        LinkedHashMap<String, SigningKey> keys = new LinkedHashMap<>(keyState.keys);
+        keys.put(keyId, newBackendKey(backend, keyId, certificate));
+
+        keyState = new KeyState(keys, keyState.activeAlias, keyState.activations, keyState.targetAliases);
+    }
+
+    /**
+     * Immediately activate a key. Signatures in progress complete with the
+     * previous key. Activations scheduled in the future are kept.
+     *
+     * @param alias Alias of the key to activate
+     * @throws TechnicalException Thrown when the key is unknown or its certificate is not valid
+     */
+    public synchronized void activate(String alias) throws TechnicalException {
+
+        LOG.debug("Activating signing key {}", alias);
+
+        checkValidity(getKey(keyState, alias), new Date());
+
+        TreeMap<Instant, String> activations = new TreeMap<>(keyState.activations.tailMap(Instant.now(), false));
+
+        keyState = new KeyState(keyState.keys, alias, activations, keyState.targetAliases);
+    }
+
+    /**
+     * Schedule the activation of a key. The key becomes the active key at the
+     * given instant, without any further call.
+     *
+     * @param alias      Alias of the key to activate
+     * @param activation Activation instant
+     * @throws TechnicalException Thrown when the key is unknown or its certificate is not valid at the activation
+     *                            instant
+     */
+    public synchronized void scheduleActivation(String alias, Instant activation) throws TechnicalException {
+
+        LOG.debug("Scheduling activation of signing key {} at {}", alias, activation);
+
+        checkValidity(getKey(keyState, alias), Date.from(activation));
+
+        // Fold the past activations in the active key
+        Instant now = Instant.now();
+        String activeAlias = keyState.getActiveAlias(now);
+
+        TreeMap<Instant, String> activations = new TreeMap<>(keyState.activations.tailMap(now, false));
+        activations.put(activation, alias);
+
+        keyState = new KeyState(keyState.keys, activeAlias, activations, keyState.targetAliases);
+    }
+
+    /**
+     * Defines the key used to sign the messages sent to a target, instead of
+     * the active key
+     *
+     * @param target Identifier of the target, for example the entity ID of a service provider
+     * @param alias  Alias of the key to use, or null to use the active key
+     * @throws TechnicalException Thrown when the key is unknown
+     */
+    public synchronized void setTargetAlias(String target, String alias) throws TechnicalException {
+
+        HashMap<String, String> targetAliases = new HashMap<>(keyState.targetAliases);
+
+        if (alias == null) {
+            targetAliases.remove(target);
+        } else {
+            getKey(keyState, alias);
+            targetAliases.put(target, alias);
+        }
+
+        keyState = new KeyState(keyState.keys, keyState.activeAlias, keyState.activations, targetAliases);
+    }
+
+    /**
+     * Get the alias of the active key
+     *
+     * @return Alias of the active key
+     */
+    public String getActiveAlias() {
+        return keyState.getActiveAlias(Instant.now());
+    }
+
+    /**
+     * Get the alias of the key used to sign the messages sent to a target
+     *
+     * @param target Identifier of the target
+     * @return Alias of the key defined for the target, or of the active key
+     */
+    public String getAliasForTarget(String target) {
+
+        KeyState state = keyState;
+        String alias = target == null ? null : state.targetAliases.get(target);
+
+        return alias != null ? alias : state.getActiveAlias(Instant.now());
+    }
+
+    /**
+     * Get the aliases of the keys of the signer
+     *
+     * @return Aliases of the loaded keys
+     */
+    public Set<String> getAliases() {
+        return keyState.keys.keySet();
+    }
+
+    /**
+     * Get the certificate of a key, for example to publish it in the metadata
+     * before its activation
+     *
+     * @param alias Alias of the key
+     * @return Certificate of the key
+     * @throws TechnicalException Thrown when the key is unknown
+     */
+    public X509Certificate getCertificate(String alias) throws TechnicalException {
+        return getKey(keyState, alias).certificate;
+    }
+
+    /**
+     * Estimate the memory footprint of the keys of the signer, as the size of
+     * their encoded form with an allowance for the decoded structures. The
+     * signing contexts and Signature instances kept per thread are not
+     * included, as they depend on the number of threads using the signer.
+     *
+     * @return Estimated size in bytes
+     */
+    long getEstimatedSize() {
+
+        long size = SIGNER_OVERHEAD;
+
+        for (SigningKey key : keyState.keys.values()) {
+            size += key.size;
+        }
+
+        return size;
+    }
+
+    private LinkedHashMap<String, SigningKey> loadKeys(String keystorePath, String keystorePass)
+            throws TechnicalException {
+
+        LinkedHashMap<String, SigningKey> keys = new LinkedHashMap<>();
+
         try (FileInputStream ksFis = new FileInputStream(keystorePath)) {
 
-            // Build a XMLSignatureFactory DOM used to generate the signature
-            // enveloppe
-            XMLSignatureFactory fac = XMLSignatureFactory.getInstance("DOM");
+            KeyInfoFactory kif = signatureFactory.getKeyInfoFactory();
 
-            // Load the keystore and the signature certificate
+            // Load the keystore and the signature certificates
             KeyStore ks = KeyStore.getInstance("PKCS12");
 
             ks.load(ksFis, keystorePass.toCharArray());
@@ -102,27 +453,41 @@ public class Signer {
                 throw new TechnicalException("Keystore doesn't contain a certificate");
             }
 
-            String alias = aliases.nextElement();
+            String incompatibleAlgorithm = null;
+
+            while (aliases.hasMoreElements()) {
+
+                String alias = aliases.nextElement();
+
+                if (!ks.isKeyEntry(alias)) {
+                    continue;
+                }
 
-            keyEntry = (KeyStore.PrivateKeyEntry) ks.getEntry(alias,
-                    new KeyStore.PasswordProtection(keystorePass.toCharArray()));
-            X509Certificate cert = (X509Certificate) keyEntry.getCertificate();
+                KeyStore.PrivateKeyEntry keyEntry = (KeyStore.PrivateKeyEntry) ks.getEntry(alias,
+                        new KeyStore.PasswordProtection(keystorePass.toCharArray()));
+                X509Certificate cert = (X509Certificate) keyEntry.getCertificate();
 
-            if (certificateExpirationCheck) {
-                cert.checkValidity();
+                if (!isKeyCompatible(keyEntry.getPrivateKey(), xmlSignatureMethod)) {
+                    LOG.debug("Ignoring key {}: {} key can't be used with signature method {}", alias,
+                            keyEntry.getPrivateKey().getAlgorithm(), xmlSignatureMethod);
+                    incompatibleAlgorithm = keyEntry.getPrivateKey().getAlgorithm();
+                    continue;
+                }
+
+                byte[] encodedKey = keyEntry.getPrivateKey().getEncoded();
+                long size = (long) DECODED_KEY_FACTOR * (cert.getEncoded().length
+                        + (encodedKey != null ? encodedKey.length : 0));
+
+                keys.put(alias, new SigningKey(alias, keyEntry.getPrivateKey(), cert,
+                        buildKeyInfo(kif, cert, keyInfoMode, providers), size));
             }
 
-            // Build the KeyInfo containing the x509 datas
-            KeyInfoFactory kif = fac.getKeyInfoFactory();
-            List<Object> x509Content = new ArrayList<>();
-            x509Content.add(cert);
-            X509Data xd = kif.newX509Data(x509Content);
-            ki = kif.newKeyInfo(Collections.singletonList(xd));
+            if (keys.isEmpty()) {
+                throw new TechnicalException(incompatibleAlgorithm == null ? "Keystore doesn't contain a private key" :
+                        "Signing key " + incompatibleAlgorithm + " can't be used with signature method "
+                                + xmlSignatureMethod);
+            }
 
-        } catch (CertificateExpiredException e) {
-            throw new TechnicalException("Signing certificate is expired", e);
-        } catch (CertificateNotYetValidException e) {
-            throw new TechnicalException("Signing certificate is not yet valid", e);
         } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException e) {
             throw new TechnicalException("Failed to load Keystore: Error when accessing idp certificate", e);
         } catch (FileNotFoundException e) {
@@ -133,31 +498,155 @@ public class Signer {
             throw new TechnicalException("Impossible to load idp certificate from keystore", e);
         }
 
-        LOG.debug("Signer initialized.");
+        return keys;
+    }
+
+    private SigningKey newBackendKey(SigningBackend backend, String keyId, X509Certificate certificate)
+            throws TechnicalException {
+
+        Assert.notNull(backend, "Signing backend can't be null");
+        Assert.notNull(keyId, "Key identifier can't be null");
+        Assert.notNull(certificate, "Certificate can't be null");
+
+        String keyAlgorithm = certificate.getPublicKey().getAlgorithm();
+
+        if (!isKeyCompatible(certificate.getPublicKey(), xmlSignatureMethod)) {
+            throw new TechnicalException("Signing key " + keyAlgorithm + " can't be used with signature method "
+                    + xmlSignatureMethod);
+        }
+
+        try {
+            return new SigningKey(keyId, BackendSignatureProvider.newKey(backend, keyId, certificate), certificate,
+                    buildKeyInfo(signatureFactory.getKeyInfoFactory(), certificate, keyInfoMode, providers),
+                    (long) DECODED_KEY_FACTOR * certificate.getEncoded().length);
+        } catch (CertificateEncodingException e) {
+            throw new TechnicalException("Could not encode signing certificate", e);
+        }
+    }
+
+    private void checkValidity(SigningKey key, Date date) throws TechnicalException {
+
+        if (!certificateExpirationCheck) {
+            return;
+        }
+
+        try {
+            key.certificate.checkValidity(date);
+        } catch (CertificateExpiredException e) {
+            throw new TechnicalException("Signing certificate is expired", e);
+        } catch (CertificateNotYetValidException e) {
+            throw new TechnicalException("Signing certificate is not yet valid", e);
+        }
+    }
+
+    private static SigningKey getKey(KeyState state, String alias) throws TechnicalException {
+
+        SigningKey key = state.keys.get(alias);
+
+        if (key == null) {
+            throw new TechnicalException("Unknown signing key: " + alias);
+        }
+
+        return key;
     }
 
     /**
-     * Sign a string
+     * Build the KeyInfo identifying the signing certificate
+     *
+     * @param kif         KeyInfo factory
+     * @param cert        Signing certificate
+     * @param keyInfoMode KeyInfo content
+     * @param providers   JCA providers to use
+     * @return The KeyInfo, or null if no KeyInfo should be emitted
+     * @throws TechnicalException Thrown when the KeyInfo mode is unknown
+     */
+    private static KeyInfo buildKeyInfo(KeyInfoFactory kif, X509Certificate cert, String keyInfoMode,
+                                        CryptoProviders providers) throws TechnicalException {
+
+        List<Object> x509Content = new ArrayList<>();
+
+        switch (keyInfoMode) {
+            case SamlConstants.KEYINFO_X509_CERTIFICATE:
+                x509Content.add(cert);
+                break;
+            case SamlConstants.KEYINFO_X509_ISSUER_SERIAL:
+                x509Content.add(kif.newX509IssuerSerial(cert.getIssuerX500Principal().getName(),
+                        cert.getSerialNumber()));
+                break;
+            case SamlConstants.KEYINFO_X509_DIGEST:
+                x509Content.add(buildX509Digest(cert, providers));
+                break;
+            case SamlConstants.KEYINFO_KEY_NAME:
+                return kif.newKeyInfo(
+                        Collections.singletonList(kif.newKeyName(cert.getSubjectX500Principal().getName())));
+            case SamlConstants.KEYINFO_NONE:
+                return null;
+            default:
+                throw new TechnicalException("Unknown KeyInfo mode: " + keyInfoMode);
+        }
+
+        X509Data xd = kif.newX509Data(x509Content);
+        return kif.newKeyInfo(Collections.singletonList(xd));
+    }
+
+    private static DOMStructure buildX509Digest(X509Certificate cert, CryptoProviders providers)
+            throws TechnicalException {
+
+        try {
+            Document doc = XmlUtils.getSecureDocumentBuilder().newDocument();
+
+            Element digest = doc.createElementNS(SamlConstants.XMLDSIG11_NS, "dsig11:X509Digest");
+            digest.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:dsig11", SamlConstants.XMLDSIG11_NS);
+            digest.setAttributeNS(null, "Algorithm", SamlConstants.SIGNATURE_DIGEST_SHA256);
+            digest.setTextContent(Base64.getEncoder().encodeToString(X509KeySelector.getDigest(cert, providers)));
+
+            return new DOMStructure(digest);
+
+        } catch (ParserConfigurationException e) {
+            throw new TechnicalException("Error when building the X509Digest element", e);
+        }
+    }
+
+    /**
+     * Sign a string with the active key
      *
      * @param infoToSign A string representation of the information to sign
      * @return a signature
      * @throws TechnicalException Thrown when something went wrong when building the signature
      */
     public byte[] signExternal(String infoToSign) throws TechnicalException {
+        return signExternal(infoToSign, null);
+    }
+
+    /**
+     * Sign a string with a specific key
+     *
+     * @param infoToSign A string representation of the information to sign
+     * @param alias      Alias of the key to use, or null to use the active key
+     * @return a signature
+     * @throws TechnicalException Thrown when something went wrong when building the signature
+     */
+    public byte[] signExternal(String infoToSign, String alias) throws TechnicalException {
 
         LOG.debug("Starting object signature...");
         LOG.debug("Info To Sign: {}", infoToSign);
 
-        Signature signer;
+        SigningKey key = getSigningKey(alias);
         byte[] signature;
 
         try {
-            signer = Signature.getInstance(inLineSignatureMethod);
+            if (key.privateKey instanceof BackendSignatureProvider.BackendKey) {
+                return BackendSignatureProvider.await(signExternalAsync(infoToSign, key));
+            }
+
+            Signature signer = borrowExternalSigner(key);
 
-            signer.initSign(keyEntry.getPrivateKey());
+            // A Signature in an unknown state after a failure is not returned
             signer.update(infoToSign.getBytes());
             signature = signer.sign();
 
+            key.externalSigners.offer(signer);
+
             LOG.debug("Object signed.");
 
         } catch (NoSuchAlgorithmException e) {
@@ -172,12 +661,77 @@ public class Signer {
     }
 
     /**
-     * Sign a SAML object
+     * Sign a string without waiting for the signature. With a key held by a
+     * signing backend, many signatures can then be pending at the same time.
+     * With a local key, the signature is computed by the calling thread.
+     *
+     * @param infoToSign A string representation of the information to sign
+     * @param alias      Alias of the key to use, or null to use the active key
+     * @return A future completed with the signature, or with the exception that prevented the signature
+     */
+    public CompletableFuture<byte[]> signExternalAsync(String infoToSign, String alias) {
+
+        try {
+            SigningKey key = getSigningKey(alias);
+
+            if (key.privateKey instanceof BackendSignatureProvider.BackendKey) {
+                return signExternalAsync(infoToSign, key);
+            }
+
+            return CompletableFuture.completedFuture(signExternal(infoToSign, alias));
+
+        } catch (TechnicalException e) {
+            CompletableFuture<byte[]> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    private CompletableFuture<byte[]> signExternalAsync(String infoToSign, SigningKey key) {
+
+        BackendSignatureProvider.BackendKey backendKey = (BackendSignatureProvider.BackendKey) key.privateKey;
+
+        return backendKey.backend.sign(backendKey.keyId, inLineSignatureMethod, infoToSign.getBytes());
+    }
+
+    private Signature borrowExternalSigner(SigningKey key) throws NoSuchAlgorithmException, InvalidKeyException {
+
+        Signature signer = key.externalSigners.poll();
+
+        if (signer == null) {
+            signer = providers.getSignature(inLineSignatureMethod);
+            signer.initSign(key.privateKey);
+        }
+
+        return signer;
+    }
+
+    private SigningKey getSigningKey(String alias) throws TechnicalException {
+
+        // Work on a snapshot: a concurrent rollover doesn't affect this signature
+        KeyState state = keyState;
+
+        return getKey(state, alias != null ? alias : state.getActiveAlias(Instant.now()));
+    }
+
+    /**
+     * Sign a SAML object with the active key
      *
      * @param object object to sign
      * @throws TechnicalException Thrown when something went wrong when building the signature
      */
     public void signEmbedded(SignableSAMLObject object) throws TechnicalException {
+        signEmbedded(object, null);
+    }
+
+    /**
+     * Sign a SAML object with a specific key
+     *
+     * @param object object to sign
+     * @param alias  Alias of the key to use, or null to use the active key
+     * @throws TechnicalException Thrown when something went wrong when building the signature
+     */
+    public void signEmbedded(SignableSAMLObject object, String alias) throws TechnicalException {
 
         LOG.debug("Starting object signature...");
         LOG.debug("SAML object: {}", object);
@@ -185,65 +739,92 @@ public class Signer {
 
         try {
 
-            // Build a XMLSignatureFactory DOM used to generate the signature
-            // enveloppe
-            XMLSignatureFactory fac = XMLSignatureFactory.getInstance("DOM");
+            if (!xmlSignatureSupported) {
+                throw new TechnicalException("Signature method " + xmlSignatureMethod
+                        + " is not supported by the XML signature provider, only by the HTTP-Redirect binding");
+            }
 
-            Element el = object.doc.getDocumentElement();
+            SigningKey key = getSigningKey(alias);
 
-            // Build a Reference to the document enveloppe ("" URI means that
-            // all the document should be signed) with SHA1 algorithm and an
-            // Enveloped Transform
-            Transform envelop = fac.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null);
+            signElement(key, getMessageType(object), object.getDocument().getDocumentElement(), object.getId());
 
-            ArrayList<String> prefixList = new ArrayList<>();
-            prefixList.add(ExcC14NParameterSpec.DEFAULT);
-            prefixList.add("saml");
-            if (object instanceof AuthentRequest || object instanceof AuthentResponse) {
-                prefixList.add("samlp");
-            }
-            if (object instanceof Metadata) {
-                prefixList.add("md");
-            }
-            prefixList.add("ds");
-            prefixList.add("xs");
-            prefixList.add("xsi");
+            // Set the signed flag on the object
+            object.signed = true;
 
-            ExcC14NParameterSpec spec = new ExcC14NParameterSpec(prefixList);
-            Transform c14n = fac.newTransform(CanonicalizationMethod.EXCLUSIVE_WITH_COMMENTS, spec);
-            ArrayList<Transform> transforms = new ArrayList<>();
-            transforms.add(envelop);
-            transforms.add(c14n);
+        } catch (NoSuchAlgorithmException e) {
+            throw new TechnicalException("Unknown signing algorithm", e);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new TechnicalException("Invalid algorithm parameters", e);
+        } catch (MarshalException e) {
+            throw new TechnicalException("Error when marshaling XML document", e);
+        } catch (XMLSignatureException e) {
+            throw new TechnicalException("Error when signing document", e);
+        }
+
+        LOG.debug("Object signed.");
+    }
+
+    /**
+     * Sign a response and its assertion with the active key
+     *
+     * @param response Response to sign, embedding an unsigned assertion
+     * @throws TechnicalException Thrown when something went wrong when building the signatures
+     */
+    public void signResponseAndAssertion(AuthentResponse response) throws TechnicalException {
+        signResponseAndAssertion(response, null);
+    }
 
-            DigestMethod digest = fac.newDigestMethod(xmlDigest, null);
+    /**
+     * Sign a response and its assertion with a specific key. Both signatures
+     * are computed on the DOM of the response, which is built once: the
+     * assertion is not signed in a document of its own that would then be
+     * serialized and parsed again. The assertion object embedded in the
+     * response is then updated to reflect the signed assertion.
+     *
+     * @param response Response to sign, embedding an unsigned assertion
+     * @param alias    Alias of the key to use, or null to use the active key
+     * @throws TechnicalException Thrown when something went wrong when building the signatures
+     */
+    public void signResponseAndAssertion(AuthentResponse response, String alias) throws TechnicalException {
+
+        LOG.debug("Starting response and assertion signature...");
+        LOG.debug("Id: {}", response.getId());
+
+        try {
 
-            Reference ref = fac.newReference("#" + object.getId(), digest, transforms, null, null);
+            if (!xmlSignatureSupported) {
+                throw new TechnicalException("Signature method " + xmlSignatureMethod
+                        + " is not supported by the XML signature provider, only by the HTTP-Redirect binding");
+            }
 
-            // Add the SignedInfo
-            SignedInfo si = fac.newSignedInfo(
-                    fac.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE_WITH_COMMENTS, (C14NMethodParameterSpec) null),
-                    fac.newSignatureMethod(xmlSignatureMethod, null), Collections.singletonList(ref));
+            // Both signatures use the same key, even during a rollover
+            SigningKey key = getSigningKey(alias);
 
-            // Creation of a DOM Sign Context
-            Node insertionPoint = findSignatureInsertionPoint(el);
+            Element responseElement = response.getDocument().getDocumentElement();
+            Element assertionElement = XmlUtils.getChildElement(responseElement, SamlConstants.ASSERTION_NS,
+                    "Assertion");
 
-            DOMSignContext dsc = insertionPoint == null ? new DOMSignContext(keyEntry.getPrivateKey(), el) :
-                    new DOMSignContext(keyEntry.getPrivateKey(), el, insertionPoint);
+            if (assertionElement == null) {
+                throw new TechnicalException("Response doesn't contain an assertion");
+            }
 
-            // Websphere Fix: the id is expected to be in lowercase
-            dsc.setIdAttributeNS(el, null, "ID");
+            if (XmlUtils.getChildElement(assertionElement, XMLSignature.XMLNS, "Signature") != null) {
+                throw new TechnicalException("Assertion is already signed");
+            }
 
-            // Defines signature namespace prefix
-            dsc.setDefaultNamespacePrefix("ds");
+            // The assertion is signed first: the response signature covers it
+            signElement(key, SamlConstants.ASSERTION_TYPE, assertionElement, assertionElement.getAttribute("ID"));
+            signElement(key, SamlConstants.RESPONSE_TYPE, responseElement, response.getId());
 
-            // Build the signature
-            XMLSignature signature = fac.newXMLSignature(si, ki);
+            response.signed = true;
 
-            // Insertion in the enveloppe
-            signature.sign(dsc);
+            // The assertion object must not keep its unsigned DOM
+            Assertion assertion = response.getAssertion();
 
-            // Set the signed flag on the object
-            object.signed = true;
+            if (assertion != null) {
+                assertion.setContainer(response);
+                assertion.signed = true;
+            }
 
         } catch (NoSuchAlgorithmException e) {
             throw new TechnicalException("Unknown signing algorithm", e);
@@ -255,7 +836,132 @@ public class Signer {
             throw new TechnicalException("Error when signing document", e);
         }
 
-        LOG.debug("Object signed.");
+        LOG.debug("Response and assertion signed.");
+    }
+
+    private void signElement(SigningKey key, String messageType, Element el, String id)
+            throws NoSuchAlgorithmException, InvalidAlgorithmParameterException, MarshalException,
+            XMLSignatureException {
+
+        XMLSignatureFactory fac = signatureFactory;
+
+        // The signature method keeps the Signature instance of its first use:
+        // backend keys need their own contexts
+        String contextKey = key.privateKey instanceof BackendSignatureProvider.BackendKey
+                ? messageType + "#backend" : messageType;
+
+        ArrayBlockingQueue<SigningContext> contexts = signingContexts.computeIfAbsent(contextKey,
+                k -> new ArrayBlockingQueue<>(MAX_POOLED_INSTANCES));
+        SigningContext context = contexts.poll();
+
+        if (context == null) {
+            context = new SigningContext(fac, messageType, xmlDigest, xmlSignatureMethod);
+        }
+
+        // Build a Reference to the document enveloppe with the
+        // precomputed digest method and prefix list
+        Reference ref = fac.newReference("#" + id, context.digestMethod, context.newTransforms(fac), null, null);
+
+        // Add the SignedInfo
+        SignedInfo si = fac.newSignedInfo(context.newCanonicalizationMethod(fac), context.signatureMethod,
+                Collections.singletonList(ref));
+
+        // Creation of a DOM Sign Context
+        Node insertionPoint = findSignatureInsertionPoint(el);
+
+        DOMSignContext dsc = insertionPoint == null ? new DOMSignContext(key.privateKey, el) :
+                new DOMSignContext(key.privateKey, el, insertionPoint);
+
+        // Websphere Fix: the id is expected to be in lowercase
+        dsc.setIdAttributeNS(el, null, "ID");
+
+        // Defines signature namespace prefix
+        dsc.setDefaultNamespacePrefix("ds");
+
+        providers.configure(dsc);
+
+        // The canonicalized SignedInfo is sent to the signing backend
+        if (key.privateKey instanceof BackendSignatureProvider.BackendKey) {
+            dsc.setProperty(CryptoProviders.DOM_SIGNATURE_PROVIDER, BackendSignatureProvider.INSTANCE);
+        }
+
+        // Build the signature
+        XMLSignature signature = fac.newXMLSignature(si, key.keyInfo);
+
+        // Insertion in the enveloppe
+        signature.sign(dsc);
+
+        // A context in an unknown state after a failure is not returned
+        contexts.offer(context);
+    }
+
+    /**
+     * Check that a key can be used with a signature method
+     *
+     * @param key             Key to check
+     * @param signatureMethod Signature method URI
+     * @return True if the key type matches the signature method
+     */
+    static boolean isKeyCompatible(Key key, String signatureMethod) {
+
+        List<String> otherInformations = SamlConstants.SUPPORTED_ALGORITHMS.get(signatureMethod);
+
+        if (otherInformations == null) {
+            return false;
+        }
+
+        String expectedAlgorithm = otherInformations.get(2);
+
+        if (!"EdDSA".equals(expectedAlgorithm)) {
+            return expectedAlgorithm.equals(key.getAlgorithm());
+        }
+
+        // Ed25519 and Ed448 keys are both named EdDSA by some providers: the
+        // curve of the key must match the one of the signature method
+        return otherInformations.get(1).equals(getEdDsaCurve(key));
+    }
+
+    private static String getEdDsaCurve(Key key) {
+
+        // EdDSA keys are named after their curve by some providers
+        if (!"EdDSA".equals(key.getAlgorithm())) {
+            return key.getAlgorithm();
+        }
+
+        byte[] encoded = key.getEncoded();
+
+        if (encoded == null) {
+            return null;
+        }
+
+        // The algorithm identifier of the encoded key holds the OID of the
+        // curve: 1.3.101.112 for Ed25519 and 1.3.101.113 for Ed448
+        for (int i = 0; i + 4 < encoded.length; i++) {
+
+            if (encoded[i] == 0x06 && encoded[i + 1] == 0x03 && encoded[i + 2] == 0x2B && encoded[i + 3] == 0x65) {
+                return encoded[i + 4] == 0x70 ? "Ed25519" : encoded[i + 4] == 0x71 ? "Ed448" : null;
+            }
+        }
+
+        return null;
+    }
+
+    private static String getMessageType(SignableSAMLObject object) throws TechnicalException {
+
+        if (object instanceof AuthentResponse) {
+            return SamlConstants.RESPONSE_TYPE;
+        }
+        if (object instanceof Assertion) {
+            return SamlConstants.ASSERTION_TYPE;
+        }
+        if (object instanceof AuthentRequest) {
+            return SamlConstants.REQUEST_TYPE;
+        }
+        if (object instanceof Metadata) {
+            return SamlConstants.METADATA_TYPE;
+        }
+
+        throw new TechnicalException("Unsupported SAML object type: " + object.getClass().getName());
     }
 
     /**
@@ -275,4 +981,110 @@ public class Signer {
 
         return el.getFirstChild().getNextSibling();
     }
+
+    /**
+     * Signature parameters of a message type, reused by the following
+     * signatures of the same type. The transforms and canonicalization method
+     * keep a reference to the document they were marshalled in, so they are
+     * the only structures rebuilt for each signature.
+     */
+    private static final class SigningContext {
+
+        private final ExcC14NParameterSpec c14nSpec;
+        private final DigestMethod digestMethod;
+        private final SignatureMethod signatureMethod;
+
+        private SigningContext(XMLSignatureFactory fac, String messageType, String xmlDigest,
+                               String xmlSignatureMethod)
+                throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+
+            ArrayList<String> prefixList = new ArrayList<>();
+            prefixList.add(ExcC14NParameterSpec.DEFAULT);
+            prefixList.add("saml");
+            if (SamlConstants.REQUEST_TYPE.equals(messageType) || SamlConstants.RESPONSE_TYPE.equals(messageType)) {
+                prefixList.add("samlp");
+            }
+            if (SamlConstants.METADATA_TYPE.equals(messageType)) {
+                prefixList.add("md");
+            }
+            prefixList.add("ds");
+            prefixList.add("xs");
+            prefixList.add("xsi");
+
+            this.c14nSpec = new ExcC14NParameterSpec(prefixList);
+            this.digestMethod = fac.newDigestMethod(xmlDigest, null);
+            this.signatureMethod = fac.newSignatureMethod(xmlSignatureMethod, null);
+        }
+
+        private List<Transform> newTransforms(XMLSignatureFactory fac)
+                throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+
+            // Enveloped Transform followed by the exclusive canonicalization
+            ArrayList<Transform> transforms = new ArrayList<>();
+            transforms.add(fac.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null));
+            transforms.add(fac.newTransform(CanonicalizationMethod.EXCLUSIVE_WITH_COMMENTS, c14nSpec));
+
+            return transforms;
+        }
+
+        private CanonicalizationMethod newCanonicalizationMethod(XMLSignatureFactory fac)
+                throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+            return fac.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE_WITH_COMMENTS,
+                    (C14NMethodParameterSpec) null);
+        }
+    }
+
+    /**
+     * Signing key loaded from a keystore
+     */
+    private static final class SigningKey {
+
+        private final String alias;
+        private final PrivateKey privateKey;
+        private final X509Certificate certificate;
+        private final KeyInfo keyInfo;
+        private final long size;
+
+        // Signature instances initialized with the key, borrowed for each
+        // signature and returned afterwards. A Signature is reset to its
+        // initialized state after each signature, so it can be reused without
+        // a new provider lookup. The pool is dropped with the key.
+        private final ArrayBlockingQueue<Signature> externalSigners = new ArrayBlockingQueue<>(MAX_POOLED_INSTANCES);
+
+        private SigningKey(String alias, PrivateKey privateKey, X509Certificate certificate, KeyInfo keyInfo,
+                           long size) {
+            this.alias = alias;
+            this.privateKey = privateKey;
+            this.certificate = certificate;
+            this.keyInfo = keyInfo;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Immutable state of the signing keys
+     */
+    private static final class KeyState {
+
+        private final Map<String, SigningKey> keys;
+        private final String activeAlias;
+        private final NavigableMap<Instant, String> activations;
+        private final Map<String, String> targetAliases;
+
+        private KeyState(Map<String, SigningKey> keys, String activeAlias, NavigableMap<Instant, String> activations,
+                         Map<String, String> targetAliases) {
+            this.keys = Collections.unmodifiableMap(new LinkedHashMap<>(keys));
+            this.activeAlias = activeAlias;
+            this.activations = Collections.unmodifiableNavigableMap(new TreeMap<>(activations));
+            this.targetAliases = Collections.unmodifiableMap(new HashMap<>(targetAliases));
+        }
+
+        private String getActiveAlias(Instant now) {
+
+            // The last scheduled activation that is due wins
+            Map.Entry<Instant, String> activation = activations.floorEntry(now);
+
+            return activation != null ? activation.getValue() : activeAlias;
+        }
+    }
 }
@@ -0,0 +1,255 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+
+package net.identio.saml;
+
+import net.identio.saml.exceptions.TechnicalException;
+import net.identio.saml.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache of signers, one per tenant. Loading a signer decrypts its keystore,
+ * which is expensive: signers are loaded on first use and kept until they
+ * are evicted.
+ * <p>
+ * The least recently used signers are evicted when the number of cached
+ * signers or their estimated memory footprint exceeds the configured limits.
+ * The estimate only covers the keys of the signers: the signing contexts
+ * each signer keeps per thread are not counted, and the memory limit should
+ * leave room for them. Concurrent requests for a tenant that is not cached
+ * yet share a single load.
+ *
+ * @author Loeiz TANGUY
+ */
+public class SignerCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SignerCache.class);
+
+    private final Loader loader;
+    private final int maxEntries;
+    private final long maxMemory;
+
+    // Access-ordered: the first entry is the least recently used. Guarded by
+    // the cache lock.
+    private final LinkedHashMap<String, CachedSigner> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memory;
+
+    // Loads in progress, shared by the threads asking for the same tenant. A
+    // load is only cached if it is still registered when it completes.
+    private final ConcurrentHashMap<String, CompletableFuture<Signer>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * Build a signer cache
+     *
+     * @param loader     Loader of the signer of a tenant
+     * @param maxEntries Maximum number of cached signers
+     * @param maxMemory  Maximum estimated memory footprint of the cached signers, in bytes
+     */
+    public SignerCache(Loader loader, int maxEntries, long maxMemory) {
+
+        Assert.notNull(loader, "Loader can't be null");
+
+        if (maxEntries < 1 || maxMemory < 1) {
+            throw new IllegalArgumentException("Cache limits must be positive");
+        }
+
+        this.loader = loader;
+        this.maxEntries = maxEntries;
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Get the signer of a tenant, loading it if it is not cached
+     *
+     * @param tenant Identifier of the tenant
+     * @return Signer of the tenant
+     * @throws TechnicalException Thrown when the signer couldn't be loaded
+     */
+    public Signer get(String tenant) throws TechnicalException {
+
+        Assert.notNull(tenant, "Tenant can't be null");
+
+        Signer signer = getCached(tenant);
+
+        if (signer != null) {
+            return signer;
+        }
+
+        CompletableFuture<Signer> future = new CompletableFuture<>();
+        CompletableFuture<Signer> pending = loading.putIfAbsent(tenant, future);
+
+        if (pending != null) {
+            return await(tenant, pending);
+        }
+
+        try {
+            // The signer may have been cached by a load that completed
+            // between the cache lookup and the registration of this load
+            signer = getCached(tenant);
+
+            if (signer == null) {
+                LOG.debug("Loading signer of tenant {}", tenant);
+
+                signer = loader.load(tenant);
+
+                if (signer == null) {
+                    throw new TechnicalException("No signer found for tenant " + tenant);
+                }
+
+                put(tenant, signer, future);
+            }
+
+            future.complete(signer);
+
+            return signer;
+
+        } catch (TechnicalException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(tenant, future);
+        }
+    }
+
+    /**
+     * Remove the signer of a tenant from the cache, for example after a
+     * change of its keystore. A load in progress is still returned to the
+     * threads waiting for it, but is not cached.
+     *
+     * @param tenant Identifier of the tenant
+     */
+    public synchronized void invalidate(String tenant) {
+
+        loading.remove(tenant);
+
+        CachedSigner entry = entries.remove(tenant);
+
+        if (entry != null) {
+            memory -= entry.size;
+        }
+    }
+
+    /**
+     * Get the number of cached signers
+     *
+     * @return Number of cached signers
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the estimated memory footprint of the cached signers
+     *
+     * @return Estimated memory footprint, in bytes
+     */
+    public synchronized long getMemoryUsage() {
+        return memory;
+    }
+
+    private synchronized Signer getCached(String tenant) {
+
+        CachedSigner entry = entries.get(tenant);
+
+        return entry != null ? entry.signer : null;
+    }
+
+    private synchronized void put(String tenant, Signer signer, CompletableFuture<Signer> load) {
+
+        // The tenant was invalidated during the load: the signer may be stale
+        if (loading.get(tenant) != load) {
+            LOG.debug("Signer of tenant {} was invalidated while loading", tenant);
+            return;
+        }
+
+        CachedSigner entry = new CachedSigner(signer, signer.getEstimatedSize());
+
+        CachedSigner previous = entries.put(tenant, entry);
+
+        if (previous != null) {
+            memory -= previous.size;
+        }
+        memory += entry.size;
+
+        // Evict the least recently used signers, but always keep the one
+        // just loaded
+        Iterator<Map.Entry<String, CachedSigner>> it = entries.entrySet().iterator();
+
+        while ((entries.size() > maxEntries || memory > maxMemory) && entries.size() > 1) {
+
+            Map.Entry<String, CachedSigner> eldest = it.next();
+
+            LOG.debug("Evicting signer of tenant {}", eldest.getKey());
+
+            memory -= eldest.getValue().size;
+            it.remove();
+        }
+    }
+
+    private static Signer await(String tenant, CompletableFuture<Signer> pending) throws TechnicalException {
+
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TechnicalException("Interrupted when loading signer of tenant " + tenant, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TechnicalException) {
+                throw (TechnicalException) e.getCause();
+            }
+            throw new TechnicalException("Error when loading signer of tenant " + tenant, e.getCause());
+        }
+    }
+
+    /**
+     * Loader of the signer of a tenant, typically building a Signer from the
+     * keystore of the tenant
+     */
+    @FunctionalInterface
+    public interface Loader {
+
+        /**
+         * Load the signer of a tenant
+         *
+         * @param tenant Identifier of the tenant
+         * @return Signer of the tenant
+         * @throws TechnicalException Thrown when the signer couldn't be loaded
+         */
+        Signer load(String tenant) throws TechnicalException;
+    }
+
+    private static final class CachedSigner {
+
+        private final Signer signer;
+        private final long size;
+
+        private CachedSigner(Signer signer, long size) {
+            this.signer = signer;
+            this.size = size;
+        }
+    }
+}
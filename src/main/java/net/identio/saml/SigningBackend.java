@@ -0,0 +1,50 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+
+package net.identio.saml;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Signing service holding private keys outside of the process, for example
+ * a HSM or a remote signing API. The Signer sends it the bytes to sign (the
+ * canonicalized SignedInfo of an XML signature, or the query string of a
+ * redirect binding message) and never accesses the private key.
+ * <p>
+ * Requests are asynchronous so that many of them can be outstanding at the
+ * same time: implementations are expected to pipeline or batch them rather
+ * than waiting for a round trip per signature. Implementations must be
+ * thread-safe.
+ *
+ * @author Loeiz TANGUY
+ */
+@FunctionalInterface
+public interface SigningBackend {
+
+    /**
+     * Sign data with a key of the backend
+     *
+     * @param keyId     Identifier of the key in the backend
+     * @param algorithm JCA signature algorithm, for example SHA256withRSA
+     * @param data      Bytes to sign
+     * @return A future completed with the signature in the format of the JCA algorithm (DER-encoded for DSA and
+     * ECDSA), or with the exception that prevented the signature
+     */
+    CompletableFuture<byte[]> sign(String keyId, String algorithm, byte[] data);
+}
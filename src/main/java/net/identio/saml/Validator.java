@@ -18,21 +18,44 @@
 
 package net.identio.saml;
 
+import net.identio.saml.common.CertificateValidityListener;
+import net.identio.saml.common.TrustedCertificates;
 import net.identio.saml.common.X509KeySelector;
 import net.identio.saml.exceptions.*;
+import net.identio.saml.utils.XmlUtils;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.ext.InboundXMLSec;
+import org.apache.xml.security.stax.ext.XMLSec;
+import org.apache.xml.security.stax.ext.XMLSecurityConstants;
+import org.apache.xml.security.stax.ext.XMLSecurityProperties;
+import org.apache.xml.security.stax.securityEvent.AlgorithmSuiteSecurityEvent;
+import org.apache.xml.security.stax.securityEvent.SecurityEvent;
+import org.apache.xml.security.stax.securityEvent.SecurityEventConstants;
+import org.apache.xml.security.stax.securityEvent.SecurityEventListener;
+import org.apache.xml.security.stax.securityEvent.SignedElementSecurityEvent;
+import org.apache.xml.security.stax.securityToken.SecurityToken;
+import org.codehaus.stax2.XMLInputFactory2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import javax.xml.crypto.KeySelector;
 import javax.xml.crypto.MarshalException;
-import javax.xml.crypto.XMLStructure;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
 import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.Transform;
 import javax.xml.crypto.dsig.XMLSignature;
 import javax.xml.crypto.dsig.XMLSignatureException;
 import javax.xml.crypto.dsig.XMLSignatureFactory;
 import javax.xml.crypto.dsig.dom.DOMValidateContext;
-import javax.xml.crypto.dsig.keyinfo.X509Data;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.Signature;
@@ -42,7 +65,18 @@ import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.X509Certificate;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 /**
  * Utility class to validate a SAML object
@@ -51,17 +85,80 @@ import java.util.List;
  */
 public class Validator {
 
+    private static final XMLInputFactory2 xmlif;
+
     // Initialize the apache security library
     static {
         org.apache.xml.security.Init.init();
+
+        xmlif = (XMLInputFactory2) XMLInputFactory2.newInstance();
+
+        // Configure factories
+        xmlif.setProperty(XMLInputFactory2.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+        xmlif.setProperty(XMLInputFactory2.SUPPORT_DTD, Boolean.FALSE);
+        xmlif.setProperty(XMLInputFactory2.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        xmlif.setProperty(XMLInputFactory2.IS_COALESCING, Boolean.FALSE);
+        xmlif.configureForSpeed();
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(Validator.class);
 
+    private static final int MAX_PREFERRED_CERTIFICATES = 4096;
+
+    // Structural limits of the signatures of a document, checked before any
+    // canonicalization: a response and its assertion, each with a single
+    // enveloped reference
+    static final int MAX_SIGNATURES = 2;
+    static final int MAX_REFERENCES = 1;
+    static final int MAX_TRANSFORMS = 2;
+    static final List<String> ALLOWED_TRANSFORMS = Arrays.asList(Transform.ENVELOPED,
+            CanonicalizationMethod.EXCLUSIVE, CanonicalizationMethod.EXCLUSIVE_WITH_COMMENTS);
+
     private ArrayList<X509Certificate> metadataCertificates;
 
     private final boolean certificateExpirationCheck;
 
+    private final TrustedCertificates trustedCertificates;
+    private final X509KeySelector keySelector;
+
+    // Streaming signature processor, shared by all threads. It is built on
+    // first use, as initializing it loads the JAXB runtime.
+    private volatile InboundXMLSec inboundProcessor;
+
+    private final CryptoProviders providers;
+
+    // Executor verifying the signatures of a document concurrently, if any
+    private volatile ExecutorService signatureExecutor;
+
+    // Shared by all the validators using the same provider
+    private final XMLSignatureFactory signatureFactory;
+
+    // Key selector of each metadata certificate. They are immutable and
+    // shared by all threads.
+    private final HashMap<X509Certificate, KeySelector> certificateKeySelectors = new HashMap<>();
+
+    // Metadata certificates usable with each signature algorithm, by index
+    private final ConcurrentHashMap<String, int[]> candidateCertificates = new ConcurrentHashMap<>();
+
+    // Index of the metadata certificate that last verified a signature of
+    // each issuer, for the most recently seen issuers. The map is access
+    // ordered, so the least recently seen issuer is evicted first.
+    private final LinkedHashMap<String, Integer> preferredCertificates =
+            new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > MAX_PREFERRED_CERTIFICATES;
+                }
+            };
+
+    // Signature instances initialized with each metadata certificate, by
+    // algorithm, confined to the thread using them. A Signature is reset to
+    // its initialized state after each verification, so it can be reused.
+    private final ThreadLocal<HashMap<String, Signature[]>> verifiers = ThreadLocal.withInitial(HashMap::new);
+
     /**
      * Constructor based on list of signing certificates
      *
@@ -71,15 +168,32 @@ public class Validator {
      */
     public Validator(List<X509Certificate> signingCertificates, boolean certificateExpirationCheck)
             throws TechnicalException {
+        this(signingCertificates, certificateExpirationCheck, CryptoProviders.getInstance());
+    }
+
+    /**
+     * Constructor based on list of signing certificates, using specific JCA
+     * providers
+     *
+     * @param signingCertificates        List of certificates to validate against
+     * @param certificateExpirationCheck True if the certificate expiration check should be done
+     * @param providers                  JCA providers to use
+     * @throws TechnicalException Thrown when something went wrong when building the Validator
+     */
+    public Validator(List<X509Certificate> signingCertificates, boolean certificateExpirationCheck,
+                     CryptoProviders providers) throws TechnicalException {
 
         LOG.debug("Starting Validator initialization...");
         LOG.debug("Is certificate expiration checked? {}", certificateExpirationCheck);
 
         this.certificateExpirationCheck = certificateExpirationCheck;
+        this.providers = providers;
+        this.signatureFactory = providers.getXMLSignatureFactory();
 
         metadataCertificates = new ArrayList<>();
 
-        // Check certificate validity
+        // Check certificate validity. Certificates that are not yet valid are
+        // kept: they are used as soon as they become valid.
         int invalidCertCount = 0;
 
         for (X509Certificate cert : signingCertificates) {
@@ -89,21 +203,21 @@ public class Validator {
                     cert.checkValidity();
                 }
 
-                // If no exception is thrown, we add it to the
-                // certificates to use
-                metadataCertificates.add(cert);
-
             } catch (CertificateExpiredException e) {
 
                 invalidCertCount++;
 
                 LOG.error("Metadata certificate is expired", e);
+                continue;
+
             } catch (CertificateNotYetValidException e) {
 
                 invalidCertCount++;
 
                 LOG.error("Metadata certificate is not yet valid", e);
             }
+
+            metadataCertificates.add(cert);
         }
 
         // If all certificates are invalid, throw an exception
@@ -111,9 +225,77 @@ public class Validator {
             throw new TechnicalException("Failed to load metadata: Unable to find a valid certificate");
         }
 
+        trustedCertificates = new TrustedCertificates(metadataCertificates, providers);
+        keySelector = new X509KeySelector(trustedCertificates);
+
+        for (X509Certificate cert : metadataCertificates) {
+            certificateKeySelectors.put(cert, KeySelector.singletonKeySelector(cert.getPublicKey()));
+        }
+
         LOG.debug("Validator initialized.");
     }
 
+    private InboundXMLSec getInboundProcessor() throws TechnicalException {
+
+        InboundXMLSec processor = inboundProcessor;
+
+        if (processor == null) {
+            synchronized (this) {
+                processor = inboundProcessor;
+
+                if (processor == null) {
+                    processor = buildInboundProcessor();
+                    inboundProcessor = processor;
+                }
+            }
+        }
+
+        return processor;
+    }
+
+    private static InboundXMLSec buildInboundProcessor() throws TechnicalException {
+
+        LOG.debug("Starting streaming signature processor initialization...");
+
+        XMLSecurityProperties properties = new XMLSecurityProperties();
+
+        // SAML objects are referenced by their ID attribute. No verification
+        // key is set: the signing key is taken from the KeyInfo of the
+        // signature, like the DOM validation does.
+        properties.setIdAttributeNS(new QName(null, "ID"));
+
+        try {
+            return XMLSec.getInboundWSSec(properties);
+        } catch (XMLSecurityException e) {
+            throw new TechnicalException("Error when initializing the streaming signature processor", e);
+        }
+    }
+
+    /**
+     * Register a listener notified when a metadata certificate expires or
+     * becomes valid
+     *
+     * @param listener Listener to register
+     */
+    public void addValidityListener(CertificateValidityListener listener) {
+        trustedCertificates.addValidityListener(listener);
+    }
+
+    /**
+     * Defines the executor used to verify the signatures of a document
+     * concurrently, such as the signatures of a response and of its
+     * assertion. The validation fails as soon as one signature is invalid.
+     * Each signature verified by the executor works on its own copy of the
+     * document, so this only pays off for documents that are costly to
+     * verify. By default, the signatures are verified one after the other by
+     * the calling thread.
+     *
+     * @param executor Executor to use, or null to verify the signatures sequentially
+     */
+    public void setSignatureExecutor(ExecutorService executor) {
+        this.signatureExecutor = executor;
+    }
+
     /**
      * Validate a SignedInfo
      *
@@ -128,53 +310,118 @@ public class Validator {
      */
     public boolean validate(String signedInfo, byte[] signature, String sigAlg)
             throws TechnicalException, InvalidSignatureException, NoSuchAlgorithmException {
+        return validate(signedInfo, signature, sigAlg, null);
+    }
+
+    /**
+     * Validate a SignedInfo sent by a given issuer. The certificate that
+     * last verified a signature of the issuer is tried first, so that a key
+     * rollover doesn't cost a failed verification per message.
+     *
+     * @param signedInfo SignedInfo to validate
+     * @param signature  Signature element
+     * @param sigAlg     Signature algorithm
+     * @param issuer     Issuer of the message, or null if unknown
+     * @return True if validated
+     * @throws TechnicalException        Thrown when something went wrong when validating the
+     *                                   signature
+     * @throws InvalidSignatureException Thrown when the signature is invalid
+     * @throws NoSuchAlgorithmException  Thrown when the signing algorithm is not supported
+     */
+    public boolean validate(String signedInfo, byte[] signature, String sigAlg, String issuer)
+            throws TechnicalException, InvalidSignatureException, NoSuchAlgorithmException {
 
         LOG.debug("Validating provided signed information...");
         LOG.debug("Signed information: {}", signedInfo);
         LOG.debug("Signature: {}", signature);
         LOG.debug("Signature Algorithm: {}", sigAlg);
+        LOG.debug("Issuer: {}", issuer);
 
         checkSignatureAlgorithm(sigAlg);
 
-        Signature verifier;
+        // Only the certificates whose key type matches the algorithm are
+        // candidates
+        int[] candidates = candidateCertificates.computeIfAbsent(sigAlg, this::findCandidateCertificates);
+
+        if (candidates.length == 0) {
+            LOG.debug("No metadata certificate can be used with {}", sigAlg);
+            return false;
+        }
+
+        // The preferred certificate is always a candidate for the algorithm
+        String issuerKey = sigAlg + "#" + (issuer == null ? "" : issuer);
+        Integer preferred = getPreferredCertificate(issuerKey);
 
         try {
 
-            // We check with every known certificate
-            verifier = Signature.getInstance(SamlConstants.SUPPORTED_ALGORITHMS.get(sigAlg).get(1));
-            boolean validationStatus = false;
+            Signature[] certVerifiers = verifiers.get().computeIfAbsent(sigAlg,
+                    k -> new Signature[metadataCertificates.size()]);
             int invalidCertCount = 0;
 
-            for (X509Certificate cert : metadataCertificates) {
+            for (int n = 0; n < candidates.length; n++) {
+
+                // The most recently successful certificate is tried first:
+                // it swaps places with the first candidate
+                int i = candidates[n];
+
+                if (preferred != null) {
+                    if (n == 0) {
+                        i = preferred;
+                    } else if (i == preferred) {
+                        i = candidates[0];
+                    }
+                }
+
+                X509Certificate cert = metadataCertificates.get(i);
 
                 // We check that the certificate is not expired
                 if (certificateExpirationCheck) {
                     try {
-                        cert.checkValidity();
+                        trustedCertificates.checkValidity(cert);
                     } catch (CertificateExpiredException | CertificateNotYetValidException e) {
                         invalidCertCount++;
-                        break;
+                        continue;
                     }
 
                 }
 
-                verifier.initVerify(cert);
-                verifier.update(signedInfo.getBytes());
-                validationStatus = verifier.verify(signature);
-                if (validationStatus) {
-                    break;
+                if (certVerifiers[i] == null) {
+                    Signature verifier = providers.getSignature(SamlConstants.SUPPORTED_ALGORITHMS.get(sigAlg).get(1));
+                    verifier.initVerify(cert);
+                    certVerifiers[i] = verifier;
                 }
 
+                boolean validationStatus;
+
+                try {
+                    certVerifiers[i].update(signedInfo.getBytes());
+                    validationStatus = certVerifiers[i].verify(signature);
+                } catch (SignatureException e) {
+                    // Don't reuse a Signature in an unknown state
+                    certVerifiers[i] = null;
+                    throw e;
+                }
+
+                if (validationStatus) {
+
+                    if (preferred == null || i != preferred) {
+                        rememberCertificate(issuerKey, i);
+                    }
+
+                    LOG.debug("Result of the validation of the signed info: true");
+
+                    return true;
+                }
             }
 
             // If all certificates are invalid, throw an exception
-            if (invalidCertCount == metadataCertificates.size()) {
+            if (invalidCertCount == candidates.length) {
                 throw new TechnicalException("Unable to find a valid certificate in metadata");
             }
 
-            LOG.debug("Result of the validation of the signed info: {}", validationStatus);
+            LOG.debug("Result of the validation of the signed info: false");
 
-            return validationStatus;
+            return false;
 
         } catch (NoSuchAlgorithmException e) {
             throw new TechnicalException("Unknown signing algorithm", e);
@@ -185,6 +432,28 @@ public class Validator {
         }
     }
 
+    private int[] findCandidateCertificates(String sigAlg) {
+
+        return IntStream.range(0, metadataCertificates.size())
+                .filter(i -> Signer.isKeyCompatible(metadataCertificates.get(i).getPublicKey(), sigAlg))
+                .toArray();
+    }
+
+    private Integer getPreferredCertificate(String issuerKey) {
+
+        synchronized (preferredCertificates) {
+            return preferredCertificates.get(issuerKey);
+        }
+    }
+
+    private void rememberCertificate(String issuerKey, int certificateIndex) {
+
+        // Only called once a metadata certificate verified the signature
+        synchronized (preferredCertificates) {
+            preferredCertificates.put(issuerKey, certificateIndex);
+        }
+    }
+
     /**
      * Validate the signature of the given SAML object.
      *
@@ -202,85 +471,248 @@ public class Validator {
         LOG.debug("Validating provided SAML object...");
         LOG.debug("SAML object: {}", object);
 
-        try {
+        Document responseDocument = object.getDocument();
 
-            Document responseDocument = object.doc;
+        // We check that the response document is made of one child
+        NodeList children = responseDocument.getChildNodes();
+        if (children != null && children.getLength() != 1) {
+            throw new TechnicalException(
+                    "Can not parse XML document: two nodes are present at the root of the document");
+        }
 
-            // We check that the response document is made of one child
-            NodeList children = responseDocument.getChildNodes();
-            if (children != null && children.getLength() != 1) {
-                throw new TechnicalException(
-                        "Can not parse XML document: two nodes are present at the root of the document");
-            }
+        // We extract the ID of this element
+        String id = children.item(0).getAttributes().getNamedItem("ID").getTextContent();
 
-            // We extract the ID of this element
-            String id = children.item(0).getAttributes().getNamedItem("ID").getTextContent();
+        NodeList docSignature = responseDocument.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
 
-            NodeList docSignature = responseDocument.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+        if (docSignature.getLength() == 0) {
+            throw new UnsignedSAMLObjectException("Cannot find Signature element");
+        }
 
-            if (docSignature.getLength() == 0) {
-                throw new UnsignedSAMLObjectException("Cannot find Signature element");
-            }
+        checkSignatureStructure(responseDocument, docSignature);
 
-            // Check every signature in the document
-            boolean signatureGlobal = false;
+        ExecutorService executor = signatureExecutor;
 
-            for (int i = 0; i < docSignature.getLength(); i++) {
-                DOMValidateContext validateContext = new DOMValidateContext(new X509KeySelector(),
-                        docSignature.item(i));
+        boolean signatureGlobal = executor != null && docSignature.getLength() > 1
+                ? validateSignatures(executor, responseDocument, docSignature, id)
+                : validateSignatures(responseDocument, docSignature, id);
 
-                validateContext.setIdAttributeNS(responseDocument.getDocumentElement(), null, "ID");
+        // If one valid signature is not global to the document, we reject it
+        if (!signatureGlobal) {
+            throw new InvalidSignatureException("Could not find a global signature of the document");
+        }
 
-                // Force secure validation
-                validateContext.setProperty("org.apache.jcp.xml.dsig.secureValidation", Boolean.TRUE);
+        LOG.debug("SAML object is valid");
+    }
 
-                XMLSignatureFactory fac = XMLSignatureFactory.getInstance("DOM");
+    private static void checkSignatureStructure(Document document, NodeList signatures)
+            throws InvalidSignatureException {
 
-                // Unmarshal the XMLSignature
-                XMLSignature signature = fac.unmarshalXMLSignature(validateContext);
+        LOG.debug("Starting signature structure check...");
 
-                checkSignatureAlgorithm(signature.getSignedInfo().getSignatureMethod().getAlgorithm());
+        if (signatures.getLength() > MAX_SIGNATURES) {
+            throw new InvalidSignatureException("Too many signatures in the document");
+        }
 
-                // Extract the certificate from the signature
-                X509Certificate cert = extractCertificate(signature);
+        for (int i = 0; i < signatures.getLength(); i++) {
 
-                // Check that the signer is trusted
-                boolean signerTrusted = isSignerTrusted(cert);
+            Element signature = (Element) signatures.item(i);
+            Element signedInfo = XmlUtils.getChildElement(signature, XMLSignature.XMLNS, "SignedInfo");
 
-                if (!signerTrusted) {
-                    throw new UntrustedSignerException("Certificate is not trusted");
-                }
+            if (signedInfo == null) {
+                throw new InvalidSignatureException("Cannot find SignedInfo element");
+            }
 
-                // Check certificate validity
-                if (certificateExpirationCheck) {
-                    try {
-                        cert.checkValidity();
+            // An enveloped signature can only reference its parent element
+            Node parent = signature.getParentNode();
+            String parentID = parent instanceof Element && ((Element) parent).hasAttributeNS(null, "ID")
+                    ? ((Element) parent).getAttributeNS(null, "ID") : null;
+            boolean rootSignature = parent == document.getDocumentElement();
 
-                    } catch (CertificateExpiredException e) {
-                        throw new TechnicalException("Certificate is expired", e);
-                    } catch (CertificateNotYetValidException e) {
-                        throw new TechnicalException("Certificate is not yet valid", e);
-                    }
+            int referenceCount = 0;
+
+            for (Node child = signedInfo.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+                if (child.getNodeType() != Node.ELEMENT_NODE || !XMLSignature.XMLNS.equals(child.getNamespaceURI())
+                        || !"Reference".equals(child.getLocalName())) {
+                    continue;
                 }
 
-                // If one signature is invalid, the whole document is invalid
-                if (!signature.validate(validateContext)) {
-                    throw new InvalidSignatureException("One of the signature in the document is invalid");
+                if (++referenceCount > MAX_REFERENCES) {
+                    throw new InvalidSignatureException("Too many references in the signature");
                 }
 
-                // We check that the signature is global and covers the entire
-                // document
-                if (isSignatureGlobal(signature, id)) {
+                Element reference = (Element) child;
+                String uri = reference.getAttributeNS(null, "URI");
+
+                boolean uriAllowed = reference.hasAttributeNS(null, "URI")
+                        && (rootSignature && "".equals(uri) || parentID != null && uri.equals("#" + parentID));
+
+                if (!uriAllowed) {
+                    throw new InvalidSignatureException("Reference doesn't point to the signed element: " + uri);
+                }
+
+                checkTransforms(XmlUtils.getChildElement(reference, XMLSignature.XMLNS, "Transforms"));
+            }
+
+            if (referenceCount == 0) {
+                throw new InvalidSignatureException("Cannot find Reference element");
+            }
+        }
+
+        LOG.debug("Signature structure check passed.");
+    }
+
+    private static void checkTransforms(Element transforms) throws InvalidSignatureException {
+
+        if (transforms == null) {
+            return;
+        }
+
+        int transformCount = 0;
+
+        for (Node child = transforms.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+
+            if (++transformCount > MAX_TRANSFORMS) {
+                throw new InvalidSignatureException("Too many transforms in the reference");
+            }
+
+            String algorithm = ((Element) child).getAttributeNS(null, "Algorithm");
+
+            if (!XMLSignature.XMLNS.equals(child.getNamespaceURI()) || !"Transform".equals(child.getLocalName())
+                    || !ALLOWED_TRANSFORMS.contains(algorithm)) {
+                throw new InvalidSignatureException("Unsupported transform: " + algorithm);
+            }
+        }
+    }
+
+    private boolean validateSignatures(Document document, NodeList signatures, String rootID)
+            throws UntrustedSignerException, TechnicalException, InvalidSignatureException,
+            NoSuchAlgorithmException {
+
+        // Check every signature in the document. The validation context is
+        // shared by all the signatures.
+        boolean signatureGlobal = false;
+
+        DOMValidateContext validateContext = buildValidateContext(document);
+
+        for (int i = 0; i < signatures.getLength(); i++) {
+            if (validateSignature(validateContext, signatures.item(i), rootID)) {
+                signatureGlobal = true;
+            }
+        }
+
+        return signatureGlobal;
+    }
+
+    private boolean validateSignatures(ExecutorService executor, Document document, NodeList signatures,
+                                       String rootID) throws UntrustedSignerException, TechnicalException,
+            InvalidSignatureException, NoSuchAlgorithmException {
+
+        LOG.debug("Validating {} signatures concurrently...", signatures.getLength());
+
+        // The DOM is not thread-safe, even for reads, and the validation
+        // registers the ID attributes of the document: each concurrent
+        // validation works on its own copy of the document, made by the
+        // calling thread before any validation starts.
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executor);
+        ArrayList<Future<Boolean>> futures = new ArrayList<>();
+
+        for (int i = 1; i < signatures.getLength(); i++) {
+            Document copy = (Document) document.cloneNode(true);
+            Node signatureNode = copy.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature").item(i);
+            DOMValidateContext validateContext = buildValidateContext(copy);
+
+            futures.add(completionService.submit(() -> validateSignature(validateContext, signatureNode, rootID)));
+        }
+
+        try {
+
+            // The first signature is verified by the calling thread
+            boolean signatureGlobal = validateSignature(buildValidateContext(document), signatures.item(0), rootID);
+
+            // Fail as soon as one signature is invalid
+            for (int i = 0; i < futures.size(); i++) {
+                if (completionService.take().get()) {
                     signatureGlobal = true;
                 }
             }
 
-            // If one valid signature is not global to the document, we reject it
-            if (!signatureGlobal) {
-                throw new InvalidSignatureException("Could not find a global signature of the document");
+            return signatureGlobal;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TechnicalException("Interrupted when validating signatures", e);
+        } catch (ExecutionException e) {
+            throw rethrowValidationFailure(e.getCause());
+        } finally {
+            for (Future<Boolean> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static TechnicalException rethrowValidationFailure(Throwable cause) throws UntrustedSignerException,
+            InvalidSignatureException, NoSuchAlgorithmException {
+
+        if (cause instanceof UntrustedSignerException) {
+            throw (UntrustedSignerException) cause;
+        }
+        if (cause instanceof InvalidSignatureException) {
+            throw (InvalidSignatureException) cause;
+        }
+        if (cause instanceof NoSuchAlgorithmException) {
+            throw (NoSuchAlgorithmException) cause;
+        }
+        if (cause instanceof TechnicalException) {
+            return (TechnicalException) cause;
+        }
+
+        return new TechnicalException("Error when validating signatures", cause);
+    }
+
+    private boolean validateSignature(DOMValidateContext validateContext, Node signatureNode, String rootID)
+            throws UntrustedSignerException, TechnicalException, InvalidSignatureException,
+            NoSuchAlgorithmException {
+
+        try {
+
+            XMLSignatureFactory fac = signatureFactory;
+
+            setSignatureNode(validateContext, signatureNode);
+            validateContext.setKeySelector(keySelector);
+
+            // Unmarshal the XMLSignature
+            XMLSignature signature = fac.unmarshalXMLSignature(validateContext);
+
+            checkSignatureAlgorithm(signature.getSignedInfo().getSignatureMethod().getAlgorithm());
+
+            boolean signatureValid;
+
+            if (signature.getKeyInfo() == null) {
+
+                // No hint on the signing certificate: try every trusted one
+                signatureValid = validateWithTrustedCertificates(fac, validateContext);
+
+            } else {
+
+                // Find the trusted certificates referenced by the signature
+                signatureValid = validateWithCandidateCertificates(fac, validateContext, signature,
+                        keySelector.resolveCertificates(signature.getKeyInfo()));
+            }
+
+            // If one signature is invalid, the whole document is invalid
+            if (!signatureValid) {
+                throw new InvalidSignatureException("One of the signature in the document is invalid");
             }
 
-            LOG.debug("SAML object is valid");
+            // We check that the signature is global and covers the entire
+            // document
+            return isSignatureGlobal(signature, rootID);
 
         } catch (MarshalException e) {
             throw new TechnicalException("Error when serializing XML", e);
@@ -289,54 +721,289 @@ public class Validator {
         }
     }
 
-    private static X509Certificate extractCertificate(XMLSignature signature) {
+    /**
+     * Validate the signatures of a SAML response while parsing it. The
+     * signatures are verified as the response is read, without building a
+     * DOM, and the response fields are filled in the same pass. The checks
+     * are the same as the ones of {@link #validate(SignableSAMLObject)}.
+     * <p>
+     * Only a response holding a single signature, that carries its
+     * certificate in its KeyInfo, can be verified while streaming. Other
+     * responses, such as a response signed along with its assertion, are
+     * parsed to a DOM and validated with {@link #validate(SignableSAMLObject)}.
+     *
+     * @param response Bytes of the response, UTF-8 encoded
+     * @return The parsed response
+     * @throws UnsignedSAMLObjectException     Thrown when the response is not signed
+     * @throws UntrustedSignerException        Thrown if the signer is not trusted
+     * @throws TechnicalException              Thrown when something went wrong when validating the
+     *                                         signature
+     * @throws InvalidSignatureException       Thrown when a signature is invalid
+     * @throws InvalidAuthentResponseException Thrown when the response doesn't have the awaited format
+     * @throws NoSuchAlgorithmException        Thrown when the signing algorithm is not supported
+     */
+    public AuthentResponse validateResponse(byte[] response) throws UnsignedSAMLObjectException,
+            UntrustedSignerException, TechnicalException, InvalidSignatureException,
+            InvalidAuthentResponseException, NoSuchAlgorithmException {
+
+        LOG.debug("Validating provided SAML response while parsing it...");
+
+        SignatureEvents events = new SignatureEvents();
+        AuthentResponse authentResponse = new AuthentResponse();
+        SignatureStructureReader structureReader;
+
+        try {
+
+            // The structure of the signatures is checked as the response is
+            // read, before the signature processor digests anything
+            structureReader = new SignatureStructureReader(
+                    xmlif.createXMLStreamReader(new ByteArrayInputStream(response)));
+
+        } catch (XMLStreamException e) {
+            throw new TechnicalException("Error when parsing AuthnResponse", e);
+        }
+
+        try {
+
+            XMLStreamReader parser = getInboundProcessor().processInMessage(structureReader, null, events);
+
+            authentResponse.init(parser, new String(response, StandardCharsets.UTF_8));
+
+            parser.close();
+
+        } catch (XMLStreamException | TechnicalException e) {
+
+            InvalidSignatureException structureFailure = SignatureStructureReader.getStructureFailure(e);
+            if (structureFailure != null) {
+                throw structureFailure;
+            }
+
+            // The streaming processor stops on the signatures it can't
+            // verify: they are verified on the DOM of the response instead
+            if (!structureReader.isStreamable()) {
+                return validateParsedResponse(response);
+            }
+
+            if (isSecurityFailure(e)) {
+                throw new InvalidSignatureException("Invalid signature", e);
+            }
+            if (e instanceof TechnicalException) {
+                throw (TechnicalException) e;
+            }
+            throw new TechnicalException("Error when parsing AuthnResponse", e);
+        }
+
+        if (events.signedElements.isEmpty()) {
+            throw new UnsignedSAMLObjectException("Cannot find Signature element");
+        }
+
+        for (String algorithm : events.signatureAlgorithms) {
+            checkSignatureAlgorithm(algorithm);
+        }
+
+        boolean signatureGlobal = false;
+
+        for (SignedElementSecurityEvent signedElement : events.signedElements) {
+
+            checkSigningCertificate(resolveSigningCertificate(signedElement.getSecurityToken()));
+
+            // A global signature covers the root element of the document
+            if (signedElement.getElementPath().size() == 1) {
+                signatureGlobal = true;
+            }
+        }
+
+        // If one valid signature is not global to the document, we reject it
+        if (!signatureGlobal) {
+            throw new InvalidSignatureException("Could not find a global signature of the document");
+        }
+
+        LOG.debug("SAML response is valid");
+
+        return authentResponse;
+    }
+
+    private AuthentResponse validateParsedResponse(byte[] response) throws UnsignedSAMLObjectException,
+            UntrustedSignerException, TechnicalException, InvalidSignatureException,
+            InvalidAuthentResponseException, NoSuchAlgorithmException {
+
+        LOG.debug("Signatures can't be verified while streaming, validating the DOM of the response...");
+
+        AuthentResponse authentResponse = new AuthentResponse();
+        authentResponse.init(xmlif, new String(response, StandardCharsets.UTF_8));
+
+        validate(authentResponse);
+
+        return authentResponse;
+    }
+
+    private static boolean isSecurityFailure(Throwable e) {
+
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof XMLSecurityException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean validateWithCandidateCertificates(XMLSignatureFactory fac, DOMValidateContext validateContext,
+                                                      XMLSignature signature, List<X509Certificate> candidates)
+            throws MarshalException, XMLSignatureException, UntrustedSignerException, TechnicalException {
+
+        if (candidates.isEmpty()) {
+            throw new UntrustedSignerException("Certificate is not trusted");
+        }
 
-        LOG.debug("Extracting certificate from XML signature...");
+        // Certificates sharing the same subject name are tried in turn. The
+        // check failure is only reported if no certificate could be tried.
+        Exception failure = null;
+        boolean checked = false;
 
-        X509Certificate certificate = null;
+        for (X509Certificate cert : candidates) {
 
-        for (Object o1 : signature.getKeyInfo().getContent()) {
-            XMLStructure info = (XMLStructure) o1;
-            if (!(info instanceof X509Data)) {
+            try {
+                checkSigningCertificate(cert);
+            } catch (UntrustedSignerException | TechnicalException e) {
+                failure = e;
                 continue;
             }
 
-            X509Data x509Data = (X509Data) info;
+            validateContext.setKeySelector(certificateKeySelectors.get(cert));
 
-            for (Object o : x509Data.getContent()) {
-                if (o instanceof X509Certificate) {
-                    certificate = (X509Certificate) o;
-                    break;
-                }
+            // The validation status is cached in the signature, so it has to
+            // be unmarshalled again for each certificate
+            XMLSignature candidate = checked ? fac.unmarshalXMLSignature(validateContext) : signature;
+            checked = true;
+
+            if (candidate.validate(validateContext)) {
+                return true;
             }
+        }
 
-            // Do not keep on searching if the certificate has been found
-            if (certificate != null) {
-                break;
+        if (!checked) {
+            if (failure instanceof UntrustedSignerException) {
+                throw (UntrustedSignerException) failure;
+            }
+            throw (TechnicalException) failure;
+        }
+
+        return false;
+    }
+
+    private void checkSigningCertificate(X509Certificate cert) throws UntrustedSignerException, TechnicalException {
+
+        if (cert == null || !isSignerTrusted(cert)) {
+            throw new UntrustedSignerException("Certificate is not trusted");
+        }
+
+        // Check certificate validity
+        if (certificateExpirationCheck) {
+            try {
+                trustedCertificates.checkValidity(cert);
+
+            } catch (CertificateExpiredException e) {
+                throw new TechnicalException("Certificate is expired", e);
+            } catch (CertificateNotYetValidException e) {
+                throw new TechnicalException("Certificate is not yet valid", e);
             }
         }
+    }
+
+    private X509Certificate resolveSigningCertificate(SecurityToken token) throws TechnicalException {
+
+        if (token == null) {
+            return null;
+        }
+
+        try {
+
+            X509Certificate[] certificates = token.getX509Certificates();
 
-        LOG.debug("Certificate found in XML signature: {}", certificate);
+            if (certificates != null && certificates.length > 0) {
+                return trustedCertificates.get(certificates[0]);
+            }
+
+            return token.getPublicKey() != null ? trustedCertificates.getByPublicKey(token.getPublicKey()) : null;
 
-        return certificate;
+        } catch (XMLSecurityException e) {
+            throw new TechnicalException("Error when reading the signing key", e);
+        }
     }
 
-    private boolean isSignerTrusted(X509Certificate issuerCertificate) {
+    private DOMValidateContext buildValidateContext(Document document) {
 
-        LOG.debug("Starting validation of the given issuer certificate...");
-        LOG.debug("Issuer certificate: {}", issuerCertificate);
+        DOMValidateContext validateContext = new DOMValidateContext(keySelector, document.getDocumentElement());
 
-        boolean validationStatus = false;
+        validateContext.setIdAttributeNS(document.getDocumentElement(), null, "ID");
+
+        // Force secure validation
+        validateContext.setProperty("org.apache.jcp.xml.dsig.secureValidation", Boolean.TRUE);
+
+        providers.configure(validateContext);
+
+        return validateContext;
+    }
+
+    private static void setSignatureNode(DOMValidateContext validateContext, Node signatureNode) {
+
+        validateContext.setNode(signatureNode);
+
+        // An enveloped signature references its parent element, which is not
+        // the root element for an assertion signed inside a response
+        Node signedElement = signatureNode.getParentNode();
+
+        if (signedElement instanceof Element && ((Element) signedElement).hasAttributeNS(null, "ID")) {
+            validateContext.setIdAttributeNS((Element) signedElement, null, "ID");
+        }
+    }
+
+    private boolean validateWithTrustedCertificates(XMLSignatureFactory fac, DOMValidateContext validateContext)
+            throws MarshalException, XMLSignatureException, TechnicalException {
+
+        LOG.debug("No KeyInfo in signature, checking with every trusted certificate...");
+
+        int invalidCertCount = 0;
 
-        // We check that the certificate in the signature is in the metadata
         for (X509Certificate cert : metadataCertificates) {
 
-            if (cert.equals(issuerCertificate)) {
-                validationStatus = true;
+            // We check that the certificate is not expired
+            if (certificateExpirationCheck) {
+                try {
+                    trustedCertificates.checkValidity(cert);
+                } catch (CertificateExpiredException | CertificateNotYetValidException e) {
+                    invalidCertCount++;
+                    continue;
+                }
+            }
+
+            // The validation status is cached in the signature, so it has to
+            // be unmarshalled again for each certificate
+            validateContext.setKeySelector(certificateKeySelectors.get(cert));
+
+            if (fac.unmarshalXMLSignature(validateContext).validate(validateContext)) {
+                LOG.debug("Signature validated with certificate: {}", cert.getSubjectX500Principal());
+                return true;
             }
+        }
 
+        // If all certificates are invalid, throw an exception
+        if (invalidCertCount == metadataCertificates.size()) {
+            throw new TechnicalException("Unable to find a valid certificate in metadata");
         }
 
+        return false;
+    }
+
+    private boolean isSignerTrusted(X509Certificate issuerCertificate) {
+
+        LOG.debug("Starting validation of the given issuer certificate...");
+        LOG.debug("Issuer certificate: {}", issuerCertificate);
+
+        // We check that the certificate in the signature is in the metadata
+        boolean validationStatus = trustedCertificates.contains(issuerCertificate);
+
         LOG.debug("Issuer certificate validation result: {}", validationStatus);
 
         return validationStatus;
@@ -410,4 +1077,30 @@ public class Validator {
             throw new NoSuchAlgorithmException("Unsupported algorithm: " + alg);
         }
     }
+
+    /**
+     * Collects the security events of a streamed signature verification
+     */
+    private static class SignatureEvents implements SecurityEventListener {
+
+        private final ArrayList<SignedElementSecurityEvent> signedElements = new ArrayList<>();
+        private final ArrayList<String> signatureAlgorithms = new ArrayList<>();
+
+        @Override
+        public void registerSecurityEvent(SecurityEvent securityEvent) {
+
+            if (SecurityEventConstants.SignedElement == securityEvent.getSecurityEventType()) {
+                signedElements.add((SignedElementSecurityEvent) securityEvent);
+
+            } else if (SecurityEventConstants.AlgorithmSuite == securityEvent.getSecurityEventType()) {
+
+                AlgorithmSuiteSecurityEvent algorithmEvent = (AlgorithmSuiteSecurityEvent) securityEvent;
+
+                if (XMLSecurityConstants.Asym_Sig == algorithmEvent.getAlgorithmUsage()
+                        || XMLSecurityConstants.Sym_Sig == algorithmEvent.getAlgorithmUsage()) {
+                    signatureAlgorithms.add(algorithmEvent.getAlgorithmURI());
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,258 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+
+package net.identio.saml;
+
+import net.identio.saml.exceptions.TechnicalException;
+import net.identio.saml.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the validators of the known entities, built from their
+ * metadata. A validator is registered for each role of an entity that
+ * declares signing certificates.
+ * <p>
+ * Lookups are lock-free, and updates of different entities don't contend.
+ * Registering metadata builds the new validators first, then replaces all the
+ * validators of the entity at once: a lookup never sees a partially updated
+ * entity. When the same entity is registered
+ * concurrently, the metadata of the latest call to {@link #register(Metadata)}
+ * or {@link #unregister(String)} wins, whatever the time taken to build the
+ * validators.
+ *
+ * @author Loeiz TANGUY
+ */
+public class ValidatorRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ValidatorRegistry.class);
+
+    /**
+     * Role of an entity
+     */
+    public enum Role {
+        IDP, SP
+    }
+
+    private final boolean certificateExpirationCheck;
+    private final CryptoProviders providers;
+
+    // Orders the updates of the registry, in the order of the calls
+    private final AtomicLong updateSequence = new AtomicLong();
+
+    // Validators of each entity, replaced as a whole. An update is only
+    // applied if no more recent one was applied before. An unregistered
+    // entity keeps an entry without validators while older registrations
+    // are in progress, so that they can't publish their validators.
+    private final ConcurrentHashMap<String, EntityValidators> entities = new ConcurrentHashMap<>();
+
+    // Number of registrations in progress for each entity
+    private final ConcurrentHashMap<String, Integer> registrations = new ConcurrentHashMap<>();
+
+    /**
+     * Build an empty registry
+     *
+     * @param certificateExpirationCheck True if the certificate expiration check should be done
+     */
+    public ValidatorRegistry(boolean certificateExpirationCheck) {
+        this(certificateExpirationCheck, CryptoProviders.getInstance());
+    }
+
+    /**
+     * Build an empty registry whose validators use specific JCA providers
+     *
+     * @param certificateExpirationCheck True if the certificate expiration check should be done
+     * @param providers                  JCA providers to use
+     */
+    public ValidatorRegistry(boolean certificateExpirationCheck, CryptoProviders providers) {
+
+        Assert.notNull(providers, "Providers can't be null");
+
+        this.certificateExpirationCheck = certificateExpirationCheck;
+        this.providers = providers;
+    }
+
+    /**
+     * Register the validators of an entity, replacing the ones built from a
+     * previous version of its metadata
+     *
+     * @param metadata Metadata of the entity
+     * @throws TechnicalException Thrown when a validator could not be built. The previous validators of the
+     *                            entity are kept.
+     */
+    public void register(Metadata metadata) throws TechnicalException {
+
+        Assert.notNull(metadata, "Metadata can't be null");
+        Assert.notNull(metadata.getEntityID(), "Entity ID can't be null");
+
+        String entityID = metadata.getEntityID();
+
+        LOG.debug("Registering validators of entity {}...", entityID);
+
+        // The registration is visible to unregister() before it takes its
+        // place in the sequence
+        registrations.merge(entityID, 1, Integer::sum);
+
+        try {
+            register(metadata, updateSequence.incrementAndGet());
+        } finally {
+            endRegistration(entityID);
+        }
+    }
+
+    private void register(Metadata metadata, long sequence) throws TechnicalException {
+
+        ArrayList<X509Certificate> idpCertificates = new ArrayList<>();
+        ArrayList<X509Certificate> spCertificates = new ArrayList<>();
+
+        if (metadata.getIdpSsoDescriptors() != null) {
+            for (IdpSsoDescriptor descriptor : metadata.getIdpSsoDescriptors()) {
+                addCertificates(idpCertificates, descriptor.getSigningCertificates());
+            }
+        }
+
+        if (metadata.getSpSsoDescriptors() != null) {
+            for (SpSsoDescriptor descriptor : metadata.getSpSsoDescriptors()) {
+                addCertificates(spCertificates, descriptor.getSigningCertificates());
+            }
+        }
+
+        // Validators are built outside of the lock: they are only published
+        // once they are all built
+        EnumMap<Role, Validator> validators = new EnumMap<>(Role.class);
+
+        if (!idpCertificates.isEmpty()) {
+            validators.put(Role.IDP, new Validator(idpCertificates, certificateExpirationCheck, providers));
+        }
+        if (!spCertificates.isEmpty()) {
+            validators.put(Role.SP, new Validator(spCertificates, certificateExpirationCheck, providers));
+        }
+
+        if (publish(metadata.getEntityID(), new EntityValidators(sequence, validators))) {
+            LOG.debug("Validators of entity {} registered.", metadata.getEntityID());
+        } else {
+            LOG.debug("Validators of entity {} were updated by a more recent call", metadata.getEntityID());
+        }
+    }
+
+    /**
+     * Remove the validators of an entity
+     *
+     * @param entityID Entity ID of the entity
+     */
+    public void unregister(String entityID) {
+
+        Assert.notNull(entityID, "Entity ID can't be null");
+
+        long sequence = updateSequence.incrementAndGet();
+        EntityValidators tombstone = new EntityValidators(sequence, new EnumMap<>(Role.class));
+
+        entities.compute(entityID, (id, current) -> {
+
+            if (current != null && current.sequence > sequence) {
+                return current;
+            }
+
+            // The entry is only kept to stop the registrations in progress
+            return registrations.containsKey(id) ? tombstone : null;
+        });
+    }
+
+    /**
+     * Get the validator of an entity in a given role
+     *
+     * @param entityID Entity ID of the entity
+     * @param role     Role of the entity
+     * @return The validator, or null if the entity has no signing certificate in this role
+     */
+    public Validator getValidator(String entityID, Role role) {
+
+        EntityValidators entity = entities.get(entityID);
+
+        return entity != null ? entity.validators.get(role) : null;
+    }
+
+    /**
+     * Get the validator of the identity provider that issued a response
+     *
+     * @param response Parsed response
+     * @return The validator, or null if the issuer is unknown
+     */
+    public Validator getValidator(AuthentResponse response) {
+        return getValidator(response.getIssuer(), Role.IDP);
+    }
+
+    /**
+     * Get the validator of the service provider that issued a request
+     *
+     * @param request Parsed request
+     * @return The validator, or null if the issuer is unknown
+     */
+    public Validator getValidator(AuthentRequest request) {
+        return getValidator(request.getIssuer(), Role.SP);
+    }
+
+    private boolean publish(String entityID, EntityValidators entity) {
+
+        return entities.compute(entityID, (id, current) ->
+                current != null && current.sequence > entity.sequence ? current : entity) == entity;
+    }
+
+    private void endRegistration(String entityID) {
+
+        Integer remaining = registrations.computeIfPresent(entityID, (id, count) -> count == 1 ? null : count - 1);
+
+        // The last registration in progress removes the entry left by an
+        // unregistration: no older registration can publish anymore
+        if (remaining == null) {
+            entities.computeIfPresent(entityID, (id, current) -> current.validators.isEmpty() ? null : current);
+        }
+    }
+
+    private static void addCertificates(List<X509Certificate> certificates, List<X509Certificate> added) {
+
+        if (added == null) {
+            return;
+        }
+
+        for (X509Certificate cert : added) {
+            if (!certificates.contains(cert)) {
+                certificates.add(cert);
+            }
+        }
+    }
+
+    private static final class EntityValidators {
+
+        private final long sequence;
+        private final EnumMap<Role, Validator> validators;
+
+        private EntityValidators(long sequence, EnumMap<Role, Validator> validators) {
+            this.sequence = sequence;
+            this.validators = validators;
+        }
+    }
+}
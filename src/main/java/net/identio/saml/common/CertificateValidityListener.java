@@ -0,0 +1,40 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+
+package net.identio.saml.common;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * Listener notified when a trusted certificate expires or becomes valid
+ *
+ * @author Loeiz TANGUY
+ */
+@FunctionalInterface
+public interface CertificateValidityListener {
+
+    /**
+     * Called when the validity of a trusted certificate changes. The
+     * notification is made by the first validation that observes the change.
+     *
+     * @param certificate Certificate whose validity changed
+     * @param valid       True if the certificate became valid, false if it expired
+     */
+    void validityChanged(X509Certificate certificate, boolean valid);
+}
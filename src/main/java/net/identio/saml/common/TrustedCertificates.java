@@ -0,0 +1,335 @@
+/*
+ * Ident.io SAML API
+ * Copyright (C) 2017 Loeiz TANGUY, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+
+package net.identio.saml.common;
+
+import net.identio.saml.CryptoProviders;
+import net.identio.saml.exceptions.TechnicalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable index of trusted certificates, by SHA-256 fingerprint of the
+ * certificate and of its SubjectPublicKeyInfo. The index is built once and
+ * can then be read concurrently without locking.
+ * <p>
+ * The validity periods of the certificates are kept as epoch values and
+ * checked against the system clock. The validity of all the certificates is
+ * only recomputed when one of them expires or becomes valid, and the
+ * registered listeners are notified of the change.
+ *
+ * @author Loeiz TANGUY
+ */
+public final class TrustedCertificates {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrustedCertificates.class);
+
+    private final List<X509Certificate> certificates;
+    private final CryptoProviders providers;
+
+    // Index of the trusted instances, to recognize them without computing a
+    // fingerprint
+    private final Map<X509Certificate, Integer> indexes;
+    private final Map<String, X509Certificate> byFingerprint;
+    private final Map<String, X509Certificate> byKeyFingerprint;
+
+    // Validity periods, in milliseconds since the epoch
+    private final long[] notBefore;
+    private final long[] notAfter;
+
+    private final AtomicReference<ValidityState> validity;
+    private final CopyOnWriteArrayList<CertificateValidityListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Build the index of a set of trusted certificates
+     *
+     * @param certificates Trusted certificates
+     * @param providers    JCA providers to use
+     * @throws TechnicalException Thrown when a fingerprint could not be computed
+     */
+    public TrustedCertificates(List<X509Certificate> certificates, CryptoProviders providers)
+            throws TechnicalException {
+
+        this.providers = providers;
+        this.certificates = Collections.unmodifiableList(new ArrayList<>(certificates));
+
+        IdentityHashMap<X509Certificate, Integer> indexes = new IdentityHashMap<>();
+        HashMap<String, X509Certificate> byFingerprint = new HashMap<>();
+        HashMap<String, X509Certificate> byKeyFingerprint = new HashMap<>();
+
+        notBefore = new long[this.certificates.size()];
+        notAfter = new long[this.certificates.size()];
+
+        for (int i = 0; i < this.certificates.size(); i++) {
+            X509Certificate cert = this.certificates.get(i);
+
+            indexes.putIfAbsent(cert, i);
+            byFingerprint.putIfAbsent(getFingerprint(cert), cert);
+            byKeyFingerprint.putIfAbsent(getKeyFingerprint(cert.getPublicKey()), cert);
+
+            notBefore[i] = cert.getNotBefore().getTime();
+            notAfter[i] = cert.getNotAfter().getTime();
+        }
+
+        this.indexes = Collections.unmodifiableMap(indexes);
+        this.byFingerprint = Collections.unmodifiableMap(byFingerprint);
+        this.byKeyFingerprint = Collections.unmodifiableMap(byKeyFingerprint);
+
+        validity = new AtomicReference<>(computeValidity(System.currentTimeMillis()));
+    }
+
+    /**
+     * Get the trusted certificates
+     *
+     * @return Trusted certificates, in their original order
+     */
+    public List<X509Certificate> getCertificates() {
+        return certificates;
+    }
+
+    /**
+     * Check if a certificate is trusted
+     *
+     * @param cert Certificate to check
+     * @return True if the certificate is one of the trusted certificates
+     */
+    public boolean contains(X509Certificate cert) {
+        return get(cert) != null;
+    }
+
+    /**
+     * Find the trusted certificate equal to a certificate
+     *
+     * @param cert Certificate to find
+     * @return The trusted certificate, or null if the certificate is not trusted
+     */
+    public X509Certificate get(X509Certificate cert) {
+
+        if (cert == null) {
+            return null;
+        }
+
+        if (indexes.containsKey(cert)) {
+            return cert;
+        }
+
+        try {
+            return byFingerprint.get(getFingerprint(cert));
+        } catch (TechnicalException e) {
+            // A certificate that can't be encoded is not trusted
+            return null;
+        }
+    }
+
+    /**
+     * Find a trusted certificate by its SHA-256 fingerprint
+     *
+     * @param fingerprint Base64-encoded SHA-256 digest of the DER encoding of the certificate
+     * @return The trusted certificate, or null if none matches
+     */
+    public X509Certificate getByFingerprint(String fingerprint) {
+        return byFingerprint.get(fingerprint);
+    }
+
+    /**
+     * Find a trusted certificate by its public key
+     *
+     * @param publicKey Public key
+     * @return A trusted certificate with this public key, or null if none matches
+     */
+    public X509Certificate getByPublicKey(PublicKey publicKey) {
+
+        if (publicKey == null || publicKey.getEncoded() == null) {
+            return null;
+        }
+
+        try {
+            return byKeyFingerprint.get(getKeyFingerprint(publicKey));
+        } catch (TechnicalException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check that a certificate is currently valid. For a trusted certificate,
+     * the cached validity period is checked against the system clock.
+     *
+     * @param cert Certificate to check
+     * @throws CertificateExpiredException     Thrown when the certificate is expired
+     * @throws CertificateNotYetValidException Thrown when the certificate is not yet valid
+     */
+    public void checkValidity(X509Certificate cert)
+            throws CertificateExpiredException, CertificateNotYetValidException {
+
+        Integer index = indexes.get(get(cert));
+
+        if (index == null) {
+            cert.checkValidity();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (getValidity(now).valid[index]) {
+            return;
+        }
+
+        if (now < notBefore[index]) {
+            throw new CertificateNotYetValidException("Certificate not valid until " + cert.getNotBefore());
+        }
+
+        throw new CertificateExpiredException("Certificate expired on " + cert.getNotAfter());
+    }
+
+    /**
+     * Check if a certificate is currently valid
+     *
+     * @param cert Certificate to check
+     * @return True if the certificate is valid
+     */
+    public boolean isValid(X509Certificate cert) {
+
+        try {
+            checkValidity(cert);
+            return true;
+        } catch (CertificateExpiredException | CertificateNotYetValidException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Register a listener notified when a trusted certificate expires or
+     * becomes valid
+     *
+     * @param listener Listener to register
+     */
+    public void addValidityListener(CertificateValidityListener listener) {
+        listeners.add(listener);
+    }
+
+    private ValidityState getValidity(long now) {
+
+        ValidityState state = validity.get();
+
+        if (now < state.nextTransition) {
+            return state;
+        }
+
+        // A certificate expired or became valid: only the thread publishing
+        // the new state notifies the listeners
+        ValidityState newState = computeValidity(now);
+
+        if (validity.compareAndSet(state, newState)) {
+
+            for (int i = 0; i < certificates.size(); i++) {
+                if (state.valid[i] != newState.valid[i]) {
+                    notifyListeners(certificates.get(i), newState.valid[i]);
+                }
+            }
+        }
+
+        return newState;
+    }
+
+    private ValidityState computeValidity(long now) {
+
+        boolean[] valid = new boolean[certificates.size()];
+        long nextTransition = Long.MAX_VALUE;
+
+        for (int i = 0; i < valid.length; i++) {
+
+            if (now < notBefore[i]) {
+                nextTransition = Math.min(nextTransition, notBefore[i]);
+            } else if (now <= notAfter[i]) {
+                valid[i] = true;
+                nextTransition = Math.min(nextTransition, notAfter[i] + 1);
+            }
+        }
+
+        return new ValidityState(valid, nextTransition);
+    }
+
+    private void notifyListeners(X509Certificate cert, boolean valid) {
+
+        LOG.info("Trusted certificate {} is now {}", cert.getSubjectX500Principal(), valid ? "valid" : "expired");
+
+        for (CertificateValidityListener listener : listeners) {
+            try {
+                listener.validityChanged(cert, valid);
+            } catch (RuntimeException e) {
+                LOG.warn("Certificate validity listener failed", e);
+            }
+        }
+    }
+
+    private String getFingerprint(X509Certificate cert) throws TechnicalException {
+
+        try {
+            return Base64.getEncoder().encodeToString(digest(cert.getEncoded()));
+        } catch (CertificateEncodingException e) {
+            throw new TechnicalException("Could not compute certificate digest", e);
+        }
+    }
+
+    private String getKeyFingerprint(PublicKey publicKey) throws TechnicalException {
+        return Base64.getEncoder().encodeToString(digest(publicKey.getEncoded()));
+    }
+
+    private byte[] digest(byte[] data) throws TechnicalException {
+
+        try {
+            MessageDigest md = providers.getMessageDigest("SHA-256");
+            return md.digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new TechnicalException("Could not compute certificate digest", e);
+        }
+    }
+
+    /**
+     * Validity of the certificates at a given time, until the next expiry or
+     * activation
+     */
+    private static final class ValidityState {
+
+        private final boolean[] valid;
+        private final long nextTransition;
+
+        private ValidityState(boolean[] valid, long nextTransition) {
+            this.valid = valid;
+            this.nextTransition = nextTransition;
+        }
+    }
+}
@@ -18,11 +18,30 @@
 
 package net.identio.saml.common;
 
+import net.identio.saml.CryptoProviders;
+import net.identio.saml.SamlConstants;
+import net.identio.saml.exceptions.TechnicalException;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.security.auth.x500.X500Principal;
 import javax.xml.crypto.*;
+import javax.xml.crypto.dom.DOMStructure;
 import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyName;
+import javax.xml.crypto.dsig.keyinfo.KeyValue;
 import javax.xml.crypto.dsig.keyinfo.X509Data;
+import javax.xml.crypto.dsig.keyinfo.X509IssuerSerial;
+import java.math.BigInteger;
+import java.security.KeyException;
+import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * Security class to limit the key authorized only to those that respect
@@ -32,6 +51,69 @@ import java.security.cert.X509Certificate;
  */
 public class X509KeySelector extends KeySelector {
 
+    private final boolean trustedOnly;
+
+    private final HashMap<String, List<X509Certificate>> certificatesByName = new HashMap<>();
+    private final HashMap<String, X509Certificate> certificatesByIssuerSerial = new HashMap<>();
+    private final TrustedCertificates trustedCertificates;
+
+    /**
+     * Build a key selector returning the key of the first X509 certificate
+     * embedded in the KeyInfo. The trust in this certificate must be checked
+     * separately.
+     */
+    public X509KeySelector() {
+        this.trustedOnly = false;
+        this.trustedCertificates = null;
+    }
+
+    /**
+     * Build a key selector resolving the key from a set of trusted
+     * certificates. The KeyInfo can reference the certificate by its value,
+     * its issuer and serial number, its SHA-256 digest, its subject name or
+     * its public key.
+     *
+     * @param trustedCertificates Trusted certificates
+     * @throws TechnicalException Thrown when a certificate could not be indexed
+     */
+    public X509KeySelector(List<X509Certificate> trustedCertificates) throws TechnicalException {
+        this(trustedCertificates, CryptoProviders.getInstance());
+    }
+
+    /**
+     * Build a key selector resolving the key from a set of trusted
+     * certificates, computing the certificate digests with the configured
+     * digest provider.
+     *
+     * @param trustedCertificates Trusted certificates
+     * @param providers           JCA providers to use
+     * @throws TechnicalException Thrown when a certificate could not be indexed
+     */
+    public X509KeySelector(List<X509Certificate> trustedCertificates, CryptoProviders providers)
+            throws TechnicalException {
+        this(new TrustedCertificates(trustedCertificates, providers));
+    }
+
+    /**
+     * Build a key selector resolving the key from an index of trusted
+     * certificates
+     *
+     * @param trustedCertificates Index of the trusted certificates
+     */
+    public X509KeySelector(TrustedCertificates trustedCertificates) {
+
+        this.trustedOnly = true;
+        this.trustedCertificates = trustedCertificates;
+
+        for (X509Certificate cert : trustedCertificates.getCertificates()) {
+            // Several certificates share the same subject during a key rollover
+            certificatesByName.computeIfAbsent(cert.getSubjectX500Principal().getName(), k -> new ArrayList<>())
+                    .add(cert);
+            certificatesByIssuerSerial.put(getIssuerSerialKey(cert.getIssuerX500Principal(), cert.getSerialNumber()),
+                    cert);
+        }
+    }
+
     /**
      * Attempts to find a key that satisfies the specified constraints. it's the
      * first public key contained in X509 certificate that match the authorized
@@ -49,6 +131,127 @@ public class X509KeySelector extends KeySelector {
     public KeySelectorResult select(KeyInfo keyInfo, KeySelector.Purpose purpose, AlgorithmMethod method,
                                     XMLCryptoContext context) throws KeySelectorException {
 
+        X509Certificate cert = trustedOnly ? resolveCertificate(keyInfo) : getEmbeddedCertificate(keyInfo);
+
+        if (cert == null) {
+            throw new KeySelectorException("No key found!");
+        }
+
+        final PublicKey publicKey = cert.getPublicKey();
+
+        return () -> publicKey;
+    }
+
+    /**
+     * Find the trusted certificate referenced by a KeyInfo
+     *
+     * @param keyInfo KeyInfo of the document
+     * @return The trusted certificate, or null if none matches
+     */
+    public X509Certificate resolveCertificate(KeyInfo keyInfo) {
+
+        List<X509Certificate> certificates = resolveCertificates(keyInfo);
+
+        return certificates.isEmpty() ? null : certificates.get(0);
+    }
+
+    /**
+     * Find the trusted certificates referenced by a KeyInfo. A key name can
+     * match several certificates sharing the same subject, each of them has
+     * to be tried.
+     *
+     * @param keyInfo KeyInfo of the document
+     * @return The candidate trusted certificates, empty if none matches
+     */
+    public List<X509Certificate> resolveCertificates(KeyInfo keyInfo) {
+
+        if (keyInfo == null || trustedCertificates == null) {
+            return Collections.emptyList();
+        }
+
+        for (Object o1 : keyInfo.getContent()) {
+
+            if (o1 instanceof KeyName) {
+
+                List<X509Certificate> certs = certificatesByName.get(((KeyName) o1).getName());
+                if (certs != null) {
+                    return certs;
+                }
+                continue;
+            }
+
+            if (o1 instanceof KeyValue) {
+
+                X509Certificate cert = resolvePublicKey((KeyValue) o1);
+                if (cert != null) {
+                    return Collections.singletonList(cert);
+                }
+                continue;
+            }
+
+            if (!(o1 instanceof X509Data)) {
+                continue;
+            }
+
+            for (Object o : ((X509Data) o1).getContent()) {
+
+                X509Certificate cert = null;
+
+                if (o instanceof X509Certificate) {
+                    cert = trustedCertificates.get((X509Certificate) o);
+                } else if (o instanceof X509IssuerSerial) {
+                    cert = resolveIssuerSerial((X509IssuerSerial) o);
+                } else if (o instanceof DOMStructure) {
+                    cert = resolveDigest(((DOMStructure) o).getNode());
+                }
+
+                if (cert != null) {
+                    return Collections.singletonList(cert);
+                }
+            }
+        }
+
+        return Collections.emptyList();
+    }
+
+    private X509Certificate resolvePublicKey(KeyValue keyValue) {
+
+        try {
+            return trustedCertificates.getByPublicKey(keyValue.getPublicKey());
+        } catch (KeyException e) {
+            // Unsupported key type
+            return null;
+        }
+    }
+
+    private X509Certificate resolveIssuerSerial(X509IssuerSerial issuerSerial) {
+
+        try {
+            return certificatesByIssuerSerial.get(getIssuerSerialKey(new X500Principal(issuerSerial.getIssuerName()),
+                    issuerSerial.getSerialNumber()));
+        } catch (IllegalArgumentException e) {
+            // Unparsable issuer name
+            return null;
+        }
+    }
+
+    private X509Certificate resolveDigest(Node node) {
+
+        if (!(node instanceof Element) || !SamlConstants.XMLDSIG11_NS.equals(node.getNamespaceURI())
+                || !"X509Digest".equals(node.getLocalName())
+                || !SamlConstants.SIGNATURE_DIGEST_SHA256.equals(((Element) node).getAttribute("Algorithm"))) {
+            return null;
+        }
+
+        return trustedCertificates.getByFingerprint(node.getTextContent().replaceAll("\\s", ""));
+    }
+
+    private static X509Certificate getEmbeddedCertificate(KeyInfo keyInfo) {
+
+        if (keyInfo == null) {
+            return null;
+        }
+
         for (Object o1 : keyInfo.getContent()) {
 
             XMLStructure info = (XMLStructure) o1;
@@ -61,16 +264,46 @@ public class X509KeySelector extends KeySelector {
 
             for (Object o : x509Data.getContent()) {
 
-                if (!(o instanceof X509Certificate)) {
-                    continue;
+                if (o instanceof X509Certificate) {
+                    return (X509Certificate) o;
                 }
-
-                final PublicKey publicKey = ((X509Certificate) o).getPublicKey();
-
-                return () -> publicKey;
             }
         }
 
-        throw new KeySelectorException("No key found!");
+        return null;
+    }
+
+    private static String getIssuerSerialKey(X500Principal issuer, BigInteger serialNumber) {
+        return issuer.getName(X500Principal.CANONICAL) + "#" + serialNumber;
+    }
+
+    /**
+     * Compute the SHA-256 digest of a certificate, as used in a X509Digest
+     * element
+     *
+     * @param cert Certificate to digest
+     * @return SHA-256 digest of the DER encoding of the certificate
+     * @throws TechnicalException Thrown when the digest could not be computed
+     */
+    public static byte[] getDigest(X509Certificate cert) throws TechnicalException {
+        return getDigest(cert, CryptoProviders.getInstance());
+    }
+
+    /**
+     * Compute the SHA-256 digest of a certificate, as used in a X509Digest
+     * element, with the configured digest provider
+     *
+     * @param cert      Certificate to digest
+     * @param providers JCA providers to use
+     * @return SHA-256 digest of the DER encoding of the certificate
+     * @throws TechnicalException Thrown when the digest could not be computed
+     */
+    public static byte[] getDigest(X509Certificate cert, CryptoProviders providers) throws TechnicalException {
+
+        try {
+            return providers.getMessageDigest("SHA-256").digest(cert.getEncoded());
+        } catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+            throw new TechnicalException("Could not compute certificate digest", e);
+        }
     }
 }
@@ -19,11 +19,19 @@ package net.identio.saml.utils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.util.ArrayList;
 
 /**
  * Utility class for XML processing
@@ -74,4 +82,133 @@ public class XmlUtils {
 
         return factory.newDocumentBuilder();
     }
+
+    /**
+     * Writes a DOM element and its content to a stream writer, at the current
+     * position of the writer.
+     *
+     * @param xmlw                    Stream writer
+     * @param element                 Element to write
+     * @param dropInheritedNamespaces True if the namespace declarations already in scope in the
+     *                                writer should not be repeated
+     * @throws XMLStreamException Thrown when something went wrong when writing the element
+     */
+    public static void writeElement(XMLStreamWriter xmlw, Element element, boolean dropInheritedNamespaces)
+            throws XMLStreamException {
+
+        NamedNodeMap attributes = element.getAttributes();
+
+        // Select the namespace declarations to write, against the scope of
+        // the parent element
+        ArrayList<Attr> namespaces = new ArrayList<>();
+
+        for (int i = 0; i < attributes.getLength(); i++) {
+
+            Attr attr = (Attr) attributes.item(i);
+
+            if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+                continue;
+            }
+
+            if (dropInheritedNamespaces
+                    && attr.getValue().equals(xmlw.getNamespaceContext().getNamespaceURI(getDeclaredPrefix(attr)))) {
+                continue;
+            }
+
+            namespaces.add(attr);
+        }
+
+        String prefix = element.getPrefix() == null ? XMLConstants.DEFAULT_NS_PREFIX : element.getPrefix();
+        String namespace = element.getNamespaceURI() == null ? XMLConstants.NULL_NS_URI : element.getNamespaceURI();
+
+        xmlw.writeStartElement(prefix, element.getLocalName(), namespace);
+
+        for (Attr attr : namespaces) {
+
+            String nsPrefix = getDeclaredPrefix(attr);
+
+            if (XMLConstants.DEFAULT_NS_PREFIX.equals(nsPrefix)) {
+                xmlw.writeDefaultNamespace(attr.getValue());
+            } else {
+                xmlw.writeNamespace(nsPrefix, attr.getValue());
+            }
+        }
+
+        for (int i = 0; i < attributes.getLength(); i++) {
+
+            Attr attr = (Attr) attributes.item(i);
+
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+                continue;
+            }
+
+            if (attr.getNamespaceURI() == null) {
+                xmlw.writeAttribute(attr.getLocalName() == null ? attr.getName() : attr.getLocalName(),
+                        attr.getValue());
+            } else {
+                xmlw.writeAttribute(attr.getPrefix() == null ? XMLConstants.DEFAULT_NS_PREFIX : attr.getPrefix(),
+                        attr.getNamespaceURI(), attr.getLocalName(), attr.getValue());
+            }
+        }
+
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+            switch (child.getNodeType()) {
+
+                case Node.ELEMENT_NODE:
+                    writeElement(xmlw, (Element) child, dropInheritedNamespaces);
+                    break;
+
+                case Node.TEXT_NODE:
+                    xmlw.writeCharacters(child.getNodeValue());
+                    break;
+
+                case Node.CDATA_SECTION_NODE:
+                    xmlw.writeCData(child.getNodeValue());
+                    break;
+
+                case Node.COMMENT_NODE:
+                    xmlw.writeComment(child.getNodeValue());
+                    break;
+
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    ProcessingInstruction pi = (ProcessingInstruction) child;
+                    xmlw.writeProcessingInstruction(pi.getTarget(), pi.getData());
+                    break;
+
+                default:
+                    // Do nothing
+                    break;
+            }
+        }
+
+        xmlw.writeEndElement();
+    }
+
+    /**
+     * Find the first child element of an element with a given name
+     *
+     * @param element   Parent element
+     * @param namespace Namespace of the child element
+     * @param localName Local name of the child element
+     * @return The child element, or null if none matches
+     */
+    public static Element getChildElement(Element element, String namespace, String localName) {
+
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+
+            if (child.getNodeType() == Node.ELEMENT_NODE && namespace.equals(child.getNamespaceURI())
+                    && localName.equals(child.getLocalName())) {
+                return (Element) child;
+            }
+        }
+
+        return null;
+    }
+
+    private static String getDeclaredPrefix(Attr namespaceDeclaration) {
+
+        return XMLConstants.XMLNS_ATTRIBUTE.equals(namespaceDeclaration.getLocalName()) ?
+                XMLConstants.DEFAULT_NS_PREFIX : namespaceDeclaration.getLocalName();
+    }
 }
@@ -18,16 +18,28 @@
 
 package net.identio.saml.tests;
 
-import net.identio.saml.AuthentRequest;
-import net.identio.saml.AuthentRequestBuilder;
-import net.identio.saml.SamlConstants;
+import net.identio.saml.*;
 import net.identio.saml.exceptions.InvalidRequestException;
+import net.identio.saml.exceptions.InvalidSignatureException;
 import net.identio.saml.exceptions.TechnicalException;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AuthentRequestTests {
 
@@ -276,4 +288,275 @@ public class AuthentRequestTests {
 
     }
 
+
+    @Test
+    public void signAndValidateRedirectTest() {
+
+        try (FileInputStream fis = new FileInputStream("src/test/resources/sp1/saml-idp.p12")) {
+
+            KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(fis, "password".toCharArray());
+            X509Certificate cert = (X509Certificate) ks.getCertificate(ks.aliases().nextElement());
+
+            Signer signer = new Signer("src/test/resources/sp1/saml-idp.p12", "password", false,
+                    SamlConstants.SIGNATURE_ALG_RSA_SHA256);
+            Validator validator = new Validator(Collections.singletonList(cert), false);
+
+            // Signature objects are reused between calls
+            for (int i = 0; i < 3; i++) {
+                String signedInfo = "SAMLRequest=request" + i + "&SigAlg=" + SamlConstants.SIGNATURE_ALG_RSA_SHA256;
+                byte[] signature = signer.signExternal(signedInfo);
+
+                Assert.assertTrue(validator.validate(signedInfo, signature, SamlConstants.SIGNATURE_ALG_RSA_SHA256));
+                Assert.assertFalse(validator.validate(signedInfo + "0", signature,
+                        SamlConstants.SIGNATURE_ALG_RSA_SHA256));
+            }
+
+        } catch (IOException | GeneralSecurityException | TechnicalException | InvalidSignatureException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void signAndValidateRedirectEdDsaTest() {
+
+        String[][] keystores = {{"src/test/resources/idp2/saml-idp-ed25519.p12", SamlConstants.SIGNATURE_ALG_EDDSA_ED25519},
+                {"src/test/resources/idp2/saml-idp-ed448.p12", SamlConstants.SIGNATURE_ALG_EDDSA_ED448}};
+
+        for (String[] keystore : keystores) {
+
+            try (FileInputStream fis = new FileInputStream(keystore[0])) {
+
+                KeyStore ks = KeyStore.getInstance("PKCS12");
+                ks.load(fis, "password".toCharArray());
+                X509Certificate cert = (X509Certificate) ks.getCertificate(ks.aliases().nextElement());
+
+                Signer signer = new Signer(keystore[0], "password", true, keystore[1]);
+                Validator validator = new Validator(Collections.singletonList(cert), true);
+
+                String signedInfo = "SAMLRequest=request&SigAlg=" + keystore[1];
+                byte[] signature = signer.signExternal(signedInfo);
+
+                Assert.assertTrue(validator.validate(signedInfo, signature, keystore[1]));
+                Assert.assertFalse(validator.validate(signedInfo + "0", signature, keystore[1]));
+
+            } catch (IOException | GeneralSecurityException | TechnicalException | InvalidSignatureException e) {
+                Assert.fail(e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void edDsaCurveMismatchTest() {
+
+        String[][] keystores = {{"src/test/resources/idp2/saml-idp-ed25519.p12", SamlConstants.SIGNATURE_ALG_EDDSA_ED25519,
+                SamlConstants.SIGNATURE_ALG_EDDSA_ED448},
+                {"src/test/resources/idp2/saml-idp-ed448.p12", SamlConstants.SIGNATURE_ALG_EDDSA_ED448,
+                        SamlConstants.SIGNATURE_ALG_EDDSA_ED25519}};
+
+        for (String[] keystore : keystores) {
+
+            // A key can't be used with the signature method of the other curve
+            try {
+                new Signer(keystore[0], "password", true, keystore[2]);
+                Assert.fail("Signer must reject a key of another curve");
+            } catch (TechnicalException e) {
+                // Expected
+            }
+
+            try (FileInputStream fis = new FileInputStream(keystore[0])) {
+
+                KeyStore ks = KeyStore.getInstance("PKCS12");
+                ks.load(fis, "password".toCharArray());
+                X509Certificate cert = (X509Certificate) ks.getCertificate(ks.aliases().nextElement());
+
+                Signer signer = new Signer(keystore[0], "password", true, keystore[1]);
+                Validator validator = new Validator(Collections.singletonList(cert), true);
+
+                String signedInfo = "SAMLRequest=request&SigAlg=" + keystore[1];
+                byte[] signature = signer.signExternal(signedInfo);
+
+                Assert.assertTrue(validator.validate(signedInfo, signature, keystore[1]));
+
+                // The certificate is not a candidate for the other curve
+                Assert.assertFalse(validator.validate(signedInfo, signature, keystore[2]));
+
+            } catch (IOException | GeneralSecurityException | TechnicalException | InvalidSignatureException e) {
+                Assert.fail(e.getMessage());
+            }
+        }
+    }
+
+    @Test(expected = TechnicalException.class)
+    public void incompatibleSigningKeyTest() throws TechnicalException {
+        new Signer("src/test/resources/idp2/saml-idp-ed25519.p12", "password", false,
+                SamlConstants.SIGNATURE_ALG_RSA_SHA256);
+    }
+
+    @Test
+    public void signingKeyRolloverTest() {
+
+        try {
+            Signer signer = new Signer("src/test/resources/idp2/saml-idp-rollover.p12", "password", true,
+                    SamlConstants.SIGNATURE_ALG_RSA_SHA256);
+
+            Assert.assertEquals(new HashSet<>(Arrays.asList("current", "next")), signer.getAliases());
+
+            signer.activate("current");
+            signer.setTargetAlias("https://sp.example.com", "next");
+
+            Assert.assertEquals("current", signer.getActiveAlias());
+            Assert.assertEquals("next", signer.getAliasForTarget("https://sp.example.com"));
+            Assert.assertEquals("current", signer.getAliasForTarget("https://other.example.com"));
+
+            Validator currentValidator = new Validator(Collections.singletonList(signer.getCertificate("current")),
+                    true);
+            Validator nextValidator = new Validator(Collections.singletonList(signer.getCertificate("next")), true);
+
+            String signedInfo = "SAMLRequest=request&SigAlg=" + SamlConstants.SIGNATURE_ALG_RSA_SHA256;
+
+            byte[] signature = signer.signExternal(signedInfo);
+            Assert.assertTrue(currentValidator.validate(signedInfo, signature, SamlConstants.SIGNATURE_ALG_RSA_SHA256));
+
+            signature = signer.signExternal(signedInfo, "next");
+            Assert.assertTrue(nextValidator.validate(signedInfo, signature, SamlConstants.SIGNATURE_ALG_RSA_SHA256));
+
+            // The scheduled key becomes active once its activation date is reached
+            signer.scheduleActivation("next", Instant.now());
+
+            Assert.assertEquals("next", signer.getActiveAlias());
+
+            signature = signer.signExternal(signedInfo);
+            Assert.assertTrue(nextValidator.validate(signedInfo, signature, SamlConstants.SIGNATURE_ALG_RSA_SHA256));
+            Assert.assertFalse(currentValidator.validate(signedInfo, signature,
+                    SamlConstants.SIGNATURE_ALG_RSA_SHA256));
+
+        } catch (GeneralSecurityException | TechnicalException | InvalidSignatureException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test(expected = TechnicalException.class)
+    public void unknownSigningKeyTest() throws TechnicalException {
+        Signer signer = new Signer("src/test/resources/idp2/saml-idp-rollover.p12", "password", true,
+                SamlConstants.SIGNATURE_ALG_RSA_SHA256);
+        signer.activate("unknown");
+    }
+
+    @Test
+    public void validateRedirectWithSeveralCertificatesTest() {
+
+        try (FileInputStream fis = new FileInputStream("src/test/resources/idp2/saml-idp-ed25519.p12")) {
+
+            KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(fis, "password".toCharArray());
+            X509Certificate edCert = (X509Certificate) ks.getCertificate(ks.aliases().nextElement());
+
+            Signer signer = new Signer("src/test/resources/idp2/saml-idp-rollover.p12", "password", false,
+                    SamlConstants.SIGNATURE_ALG_RSA_SHA256);
+
+            // The new key is the last RSA certificate of the metadata
+            Validator validator = new Validator(Arrays.asList(signer.getCertificate("current"), edCert,
+                    signer.getCertificate("next")), false);
+
+            String signedInfo = "SAMLRequest=request&SigAlg=" + SamlConstants.SIGNATURE_ALG_RSA_SHA256;
+
+            for (String alias : new String[]{"next", "next", "current", "next"}) {
+                byte[] signature = signer.signExternal(signedInfo, alias);
+
+                Assert.assertTrue(validator.validate(signedInfo, signature, SamlConstants.SIGNATURE_ALG_RSA_SHA256,
+                        "https://sp.example.com"));
+                Assert.assertFalse(validator.validate(signedInfo + "0", signature,
+                        SamlConstants.SIGNATURE_ALG_RSA_SHA256, "https://sp.example.com"));
+            }
+
+            // No certificate of the metadata can verify an ECDSA signature
+            Assert.assertFalse(validator.validate(signedInfo, new byte[64], SamlConstants.SIGNATURE_ALG_ECDSA_SHA256));
+
+        } catch (IOException | GeneralSecurityException | TechnicalException | InvalidSignatureException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void signerCacheTest() throws Exception {
+
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+
+        SignerCache cache = new SignerCache(tenant -> {
+            loads.incrementAndGet();
+            if ("slow".equals(tenant)) {
+                loadStarted.countDown();
+                try {
+                    releaseLoad.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new Signer("src/test/resources/sp1/saml-idp.p12", "password", false,
+                    SamlConstants.SIGNATURE_ALG_RSA_SHA256);
+        }, 2, Long.MAX_VALUE);
+
+        // Concurrent requests for the same tenant share a single load
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<Signer> first = executor.submit(() -> cache.get("slow"));
+        loadStarted.await();
+        Future<Signer> second = executor.submit(() -> cache.get("slow"));
+        Thread.sleep(50);
+        releaseLoad.countDown();
+
+        Assert.assertSame(first.get(), second.get());
+        Assert.assertEquals(1, loads.get());
+        executor.shutdown();
+
+        // The least recently used tenant is evicted
+        cache.get("tenant1");
+        cache.get("slow");
+        cache.get("tenant2");
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertSame(first.get(), cache.get("slow"));
+        Assert.assertEquals(3, loads.get());
+
+        cache.get("tenant1");
+        Assert.assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void signerCacheInvalidationTest() throws Exception {
+
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+
+        SignerCache cache = new SignerCache(tenant -> {
+            if (loads.incrementAndGet() == 1) {
+                loadStarted.countDown();
+                try {
+                    releaseLoad.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new Signer("src/test/resources/sp1/saml-idp.p12", "password", false,
+                    SamlConstants.SIGNATURE_ALG_RSA_SHA256);
+        }, 2, Long.MAX_VALUE);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Signer> stale = executor.submit(() -> cache.get("tenant1"));
+        loadStarted.await();
+
+        // The keystore changes while the signer is loading
+        cache.invalidate("tenant1");
+        releaseLoad.countDown();
+
+        Assert.assertNotNull(stale.get());
+        Assert.assertEquals(0, cache.size());
+        executor.shutdown();
+
+        Assert.assertNotSame(stale.get(), cache.get("tenant1"));
+        Assert.assertEquals(2, loads.get());
+    }
 }
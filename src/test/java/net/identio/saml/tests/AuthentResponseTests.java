@@ -19,18 +19,41 @@
 package net.identio.saml.tests;
 
 import net.identio.saml.*;
-import net.identio.saml.exceptions.InvalidAssertionException;
-import net.identio.saml.exceptions.InvalidAuthentResponseException;
-import net.identio.saml.exceptions.TechnicalException;
+import net.identio.saml.exceptions.*;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AuthentResponseTests {
 
+    private static final String IDP_KEYSTORE = "src/test/resources/idp1/saml-idp.p12";
+    private static final String KEYSTORE_PASSWORD = "password";
+
     @Test
     public void generateAndParseTest() {
 
@@ -87,4 +110,1096 @@ public class AuthentResponseTests {
         }
     }
 
+    @Test
+    public void generateSignedAssertionAndParseTest() {
+
+        try {
+
+            String issuer = "http://idp.identio.net/sp/SAML2";
+            String destinationEndpoint = "http://sp1.identio.net/SAML2/ACS";
+
+            ArrayList<Attribute> attributes = new ArrayList<>();
+            attributes.add(new Attribute("mail", "user1@identio.net"));
+            attributes.add(new Attribute("level", 3));
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer(issuer)
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setSubjectConfirmation(SamlConstants.SUBJECT_CONFIRMATION_BEARER, UUID.randomUUID().toString(),
+                            destinationEndpoint)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString())
+                    .setAttributes(attributes).build();
+
+            Signer signer = new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false,
+                    SamlConstants.SIGNATURE_ALG_RSA_SHA256);
+            signer.signEmbedded(assertion);
+
+            // Embed the signed assertion in the response
+            AuthentResponse response = AuthentResponseBuilder.getInstance()
+                    .setIssuer(issuer).setStatus(true, null)
+                    .setDestination(destinationEndpoint).setAssertion(assertion).build();
+
+            // Parse it again
+            AuthentResponse parsedAr = AuthentResponseBuilder.getInstance().build(response.toString());
+
+            // The embedded assertion signature must still be valid
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+            validator.validate(parsedAr.getAssertion());
+
+            Assert.assertEquals(true, parsedAr.getAssertion().isSigned());
+            Assert.assertEquals(assertion.getID(), parsedAr.getAssertion().getID());
+            Assert.assertEquals(2, parsedAr.getAssertion().getAttributes().size());
+
+        } catch (TechnicalException | InvalidAuthentResponseException | UnsignedSAMLObjectException
+                | UntrustedSignerException | InvalidSignatureException | NoSuchAlgorithmException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void generateCompactSignedAssertionAndParseTest() {
+
+        try {
+
+            String issuer = "http://idp.identio.net/sp/SAML2";
+            String destinationEndpoint = "http://sp1.identio.net/SAML2/ACS";
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer(issuer)
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setSubjectConfirmation(SamlConstants.SUBJECT_CONFIRMATION_BEARER, null, destinationEndpoint)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString())
+                    .setCompactOutput(true).build();
+
+            new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256)
+                    .signEmbedded(assertion);
+
+            String arString = AuthentResponseBuilder.getInstance()
+                    .setIssuer(issuer).setStatus(true, null).setDestination(destinationEndpoint)
+                    .setAssertion(assertion).setCompactOutput(true).build().toString();
+
+            // No XML declaration, no unused or repeated namespace declaration
+            Assert.assertEquals(true, arString.startsWith("<samlp:Response"));
+            Assert.assertEquals(false, arString.contains(SamlConstants.XML_SCHEMA_INSTANCE_NS));
+            Assert.assertEquals(arString.indexOf("xmlns:saml="), arString.lastIndexOf("xmlns:saml="));
+
+            // The signature of the assertion must survive the hoisting of its declarations
+            AuthentResponse parsedAr = AuthentResponseBuilder.getInstance().build(arString);
+            new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false)
+                    .validate(parsedAr.getAssertion());
+
+        } catch (TechnicalException | InvalidAuthentResponseException | UnsignedSAMLObjectException
+                | UntrustedSignerException | InvalidSignatureException | NoSuchAlgorithmException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void generateSignedAssertionWithKeyReferenceTest() {
+
+        String[] keyInfoModes = {SamlConstants.KEYINFO_X509_ISSUER_SERIAL, SamlConstants.KEYINFO_X509_DIGEST,
+                SamlConstants.KEYINFO_KEY_NAME, SamlConstants.KEYINFO_NONE};
+
+        try {
+
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+
+            for (String keyInfoMode : keyInfoModes) {
+
+                Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                        .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                        .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                        .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                                UUID.randomUUID().toString()).build();
+
+                new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256,
+                        keyInfoMode).signEmbedded(assertion);
+
+                Assert.assertEquals(false, assertion.toString().contains("X509Certificate>"));
+
+                validator.validate(assertion);
+            }
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void sameSubjectCertificatesTest() {
+
+        try {
+
+            // Both certificates of the keystore have the same subject name
+            Signer signer = new Signer("src/test/resources/idp2/saml-idp-same-subject.p12", KEYSTORE_PASSWORD,
+                    true, SamlConstants.SIGNATURE_ALG_RSA_SHA256, SamlConstants.KEYINFO_KEY_NAME);
+
+            Validator validator = new Validator(Arrays.asList(signer.getCertificate("current"),
+                    signer.getCertificate("next")), true);
+
+            for (String alias : Arrays.asList("current", "next")) {
+
+                Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                        .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                        .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                        .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                                UUID.randomUUID().toString()).build();
+
+                signer.signEmbedded(assertion, alias);
+
+                validator.validate(assertion);
+            }
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void signWithSpecificProvidersTest() {
+
+        try {
+
+            CryptoProviders providers = CryptoProviders.getInstance().setSignatureProvider("SunRsaSign")
+                    .setDigestProvider("SUN").setXmlSignatureProvider("XMLDSig");
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256,
+                    SamlConstants.KEYINFO_X509_DIGEST, providers).signEmbedded(assertion);
+
+            new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false, providers)
+                    .validate(assertion);
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void generateEd25519SignedAssertionTest() {
+
+        String keystore = "src/test/resources/idp2/saml-idp-ed25519.p12";
+
+        try {
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            Signer signer = new Signer(keystore, KEYSTORE_PASSWORD, true, SamlConstants.SIGNATURE_ALG_EDDSA_ED25519);
+
+            // EdDSA is only available for the HTTP-Redirect binding
+            try {
+                signer.signEmbedded(assertion);
+                Assert.fail("An EdDSA XML signature must be rejected");
+            } catch (TechnicalException e) {
+                Assert.assertTrue(e.getMessage().endsWith("only by the HTTP-Redirect binding"));
+            }
+
+            Assert.assertFalse(assertion.isSigned());
+
+        } catch (TechnicalException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void generateMultiValuedAttributesTest() {
+
+        try {
+
+            List<String> groups = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                groups.add("group" + i);
+            }
+
+            ArrayList<Attribute> attributes = new ArrayList<>();
+            attributes.add(Attribute.multiValued("groups", SamlConstants.ATTRIBUTE_TYPE_STRING, groups));
+            attributes.add(Attribute.singleUse("levels", SamlConstants.ATTRIBUTE_TYPE_INTEGER,
+                    Arrays.asList(1, 2, 3).iterator()));
+            attributes.add(new Attribute("key", new byte[]{1, 2, 3}));
+
+            // The first value of a multi-valued attribute is its value
+            Assert.assertEquals("group0", attributes.get(0).getValue());
+            Assert.assertEquals("1", attributes.get(1).getValue());
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString())
+                    .setAttributes(attributes).build();
+
+            AuthentResponse response = AuthentResponseBuilder.getInstance()
+                    .setIssuer("http://idp.identio.net/sp/SAML2").setStatus(true, null)
+                    .setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion).build();
+
+            ArrayList<Attribute> parsedAttributes = AuthentResponseBuilder.getInstance().build(response.toString())
+                    .getAssertion().getAttributes();
+
+            Assert.assertEquals(3, parsedAttributes.size());
+
+            Assert.assertEquals(true, parsedAttributes.get(0).isMultiValued());
+            Assert.assertEquals(groups, parsedAttributes.get(0).getValues());
+
+            Assert.assertEquals(SamlConstants.ATTRIBUTE_TYPE_INTEGER, parsedAttributes.get(1).getType());
+            Assert.assertEquals(Arrays.asList("1", "2", "3"), parsedAttributes.get(1).getValues());
+
+            Assert.assertEquals(SamlConstants.ATTRIBUTE_TYPE_BASE64, parsedAttributes.get(2).getType());
+            Assert.assertEquals("AQID", parsedAttributes.get(2).getValue());
+
+        } catch (TechnicalException | InvalidAuthentResponseException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void serializeMultiValuedAttributesTest() throws IOException, ClassNotFoundException {
+
+        List<String> groups = Arrays.asList("group1", "group2");
+
+        // Neither a lambda nor an Iterator are serializable
+        Attribute fromIterable = Attribute.multiValued("groups", SamlConstants.ATTRIBUTE_TYPE_STRING,
+                (Iterable<String>) groups::iterator);
+        Attribute fromIterator = Attribute.singleUse("levels", SamlConstants.ATTRIBUTE_TYPE_INTEGER,
+                Arrays.asList(1, 2, 3).iterator());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(fromIterable);
+            oos.writeObject(fromIterator);
+        }
+
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+
+            Attribute groupsCopy = (Attribute) ois.readObject();
+            Assert.assertEquals("groups", groupsCopy.getName());
+            Assert.assertEquals(groups, groupsCopy.getValues());
+
+            Attribute levelsCopy = (Attribute) ois.readObject();
+            Assert.assertEquals(SamlConstants.ATTRIBUTE_TYPE_INTEGER, levelsCopy.getType());
+            Assert.assertEquals(Arrays.asList(1, 2, 3), levelsCopy.getValues());
+            Assert.assertEquals("1", levelsCopy.getValue());
+        }
+
+        // The values of the original attribute can still be used once
+        List<Object> levels = new ArrayList<>();
+        fromIterator.getValues().forEach(levels::add);
+        Assert.assertEquals(Arrays.asList(1, 2, 3), levels);
+    }
+
+    @Test
+    public void writePostBindingFormTest() {
+
+        try {
+
+            AuthentResponse response = AuthentResponseBuilder.getInstance()
+                    .setIssuer("http://idp.identio.net/sp/SAML2").setStatus(false, "Authentication failed")
+                    .setDestination("http://sp1.identio.net/SAML2/ACS?a=1&b=2").build();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PostBindingWriter.getInstance().setRelayState("<\"state\">").write(response, out);
+
+            String form = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+            Assert.assertTrue(form.contains("action=\"http://sp1.identio.net/SAML2/ACS?a=1&amp;b=2\""));
+            Assert.assertTrue(form.contains("name=\"SAMLResponse\" value=\"" + response.toBase64() + "\""));
+            Assert.assertTrue(form.contains("name=\"RelayState\" value=\"&lt;&quot;state&quot;&gt;\""));
+
+            // The same form is written to a channel
+            ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+            PostBindingWriter.getInstance().setRelayState("<\"state\">")
+                    .write(response, Channels.newChannel(channelOut));
+
+            Assert.assertEquals(form, new String(channelOut.toByteArray(), StandardCharsets.UTF_8));
+
+        } catch (TechnicalException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void asyncSignTest() {
+
+        try {
+
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+
+            AsyncSigner closedSigner;
+
+            try (AsyncSigner asyncSigner = new AsyncSigner(new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false,
+                    SamlConstants.SIGNATURE_ALG_RSA_SHA256), 2, 10, AsyncSigner.REJECTION_POLICY_CALLER_RUNS)) {
+
+                closedSigner = asyncSigner;
+
+                List<CompletableFuture<AuthentResponse>> futures = new ArrayList<>();
+
+                for (int i = 0; i < 20; i++) {
+                    futures.add(asyncSigner.signEmbedded(AuthentResponseBuilder.getInstance()
+                            .setIssuer("http://idp.identio.net/sp/SAML2").setStatus(false, "Failed")
+                            .setDestination("http://sp1.identio.net/SAML2/ACS").build()));
+                }
+
+                for (CompletableFuture<AuthentResponse> future : futures) {
+                    validator.validate(future.get());
+                }
+
+            }
+
+            // A closed signer rejects new signatures
+            CompletableFuture<byte[]> rejected = closedSigner.signExternal("SAMLRequest=request");
+            Assert.assertTrue(rejected.isCompletedExceptionally());
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException | InterruptedException
+                | ExecutionException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void signingBackendTest() {
+
+        try (LocalSigningBackend backend = new LocalSigningBackend("src/test/resources/idp2/saml-idp-rollover.p12",
+                KEYSTORE_PASSWORD, 20, 64)) {
+
+            X509Certificate cert = backend.getCertificate("current");
+            Signer signer = new Signer(backend, "current", cert, true, SamlConstants.SIGNATURE_ALG_RSA_SHA256);
+            Validator validator = new Validator(Collections.singletonList(cert), true);
+
+            // The SignedInfo is signed by the backend
+            AuthentResponse response = AuthentResponseBuilder.getInstance()
+                    .setIssuer("http://idp.identio.net/sp/SAML2").setStatus(false, "Failed")
+                    .setDestination("http://sp1.identio.net/SAML2/ACS").build();
+            signer.signEmbedded(response);
+            validator.validate(response);
+
+            // Outstanding requests are batched
+            List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(signer.signExternalAsync("SAMLRequest=request" + i, null));
+            }
+
+            for (int i = 0; i < 20; i++) {
+                Assert.assertTrue(validator.validate("SAMLRequest=request" + i, futures.get(i).get(),
+                        SamlConstants.SIGNATURE_ALG_RSA_SHA256));
+            }
+
+            Assert.assertTrue(backend.getBatchCount() < 21);
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException | InterruptedException
+                | ExecutionException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void signResponseAndAssertionTest() {
+
+        try {
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            AuthentResponse ar = AuthentResponseBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setStatus(true, null).setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion)
+                    .build();
+
+            new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256)
+                    .signResponseAndAssertion(ar);
+
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+            validator.validate(ar);
+
+            // The assertion object reflects the assertion signed in the response
+            Assert.assertTrue(assertion.isSigned());
+            Assert.assertTrue(assertion.toString().contains("SignatureValue"));
+            validator.validate(assertion);
+
+            AuthentResponse parsedAr = AuthentResponseBuilder.getInstance().build(ar.toString());
+
+            Assert.assertTrue(parsedAr.isSigned());
+            Assert.assertTrue(parsedAr.getAssertion().isSigned());
+
+            validator.validate(parsedAr);
+            validator.validate(parsedAr.getAssertion());
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException | InvalidAuthentResponseException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void validateSignaturesConcurrentlyTest() {
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            AuthentResponse ar = AuthentResponseBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setStatus(true, null).setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion)
+                    .build();
+
+            new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256)
+                    .signResponseAndAssertion(ar);
+
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+            validator.setSignatureExecutor(executor);
+
+            validator.validate(AuthentResponseBuilder.getInstance().build(ar.toString()));
+
+            try {
+                validator.validate(AuthentResponseBuilder.getInstance().build(ar.toString().replace("user1", "user2")));
+                Assert.fail("A tampered response must be rejected");
+            } catch (InvalidSignatureException e) {
+                // Expected
+            }
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException | InvalidAuthentResponseException e) {
+            Assert.fail(e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void validateSignaturesConcurrentlyStressTest() throws Exception {
+
+        ExecutorService signatureExecutor = Executors.newFixedThreadPool(4);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+
+        try {
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            AuthentResponse ar = AuthentResponseBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setStatus(true, null).setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion)
+                    .build();
+
+            new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256)
+                    .signResponseAndAssertion(ar);
+
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+            validator.setSignatureExecutor(signatureExecutor);
+
+            String response = ar.toString();
+            String tampered = response.replace("user1", "user2");
+
+            // Every other validation is done on a tampered response
+            List<Future<Boolean>> results = new ArrayList<>();
+
+            for (int i = 0; i < 200; i++) {
+                boolean valid = i % 2 == 0;
+
+                results.add(callers.submit(() -> {
+                    try {
+                        validator.validate(AuthentResponseBuilder.getInstance().build(valid ? response : tampered));
+                        return valid;
+                    } catch (InvalidSignatureException e) {
+                        return !valid;
+                    }
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+
+        } finally {
+            callers.shutdown();
+            signatureExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void signatureStructureCheckTest() {
+
+        try {
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            AuthentResponse ar = AuthentResponseBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setStatus(true, null).setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion)
+                    .build();
+
+            new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256)
+                    .signEmbedded(ar);
+
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+
+            // Only the enveloped signature and exclusive canonicalization
+            // transforms are accepted
+            String xpathResponse = ar.toString().replace("http://www.w3.org/2000/09/xmldsig#enveloped-signature",
+                    "http://www.w3.org/TR/1999/REC-xpath-19991116");
+
+            try {
+                validator.validate(AuthentResponseBuilder.getInstance().build(xpathResponse));
+                Assert.fail("A signature with an XPath transform must be rejected");
+            } catch (InvalidSignatureException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Unsupported transform"));
+            }
+
+            // References must point to the signed element
+            String foreignReference = ar.toString().replace("URI=\"#" + ar.getID() + "\"", "URI=\"#other\"");
+
+            try {
+                validator.validate(AuthentResponseBuilder.getInstance().build(foreignReference));
+                Assert.fail("A reference to another element must be rejected");
+            } catch (InvalidSignatureException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Reference doesn't point to the signed element"));
+            }
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | NoSuchAlgorithmException | InvalidAuthentResponseException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void validationPipelineTest() {
+
+        try {
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setSubjectConfirmation(SamlConstants.SUBJECT_CONFIRMATION_BEARER, null,
+                            "http://sp1.identio.net/SAML2/ACS")
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            AuthentResponse ar = AuthentResponseBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setStatus(true, null).setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion)
+                    .build();
+
+            new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256)
+                    .signResponseAndAssertion(ar);
+
+            byte[] response = ar.toString().getBytes(StandardCharsets.UTF_8);
+
+            ConcurrentHashMap<String, Instant> receivedIds = new ConcurrentHashMap<>();
+
+            AuthentResponseValidator.ReplayCache replayCache = new AuthentResponseValidator.ReplayCache() {
+                @Override
+                public boolean contains(String id) {
+                    return receivedIds.containsKey(id);
+                }
+
+                @Override
+                public boolean add(String id, Instant expiration) {
+                    return receivedIds.putIfAbsent(id, expiration) == null;
+                }
+            };
+
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+
+            AuthentResponseValidator pipeline = AuthentResponseValidator.getInstance().setValidator(validator)
+                    .setExpectedIssuers(Collections.singletonList("http://idp.identio.net/sp/SAML2"))
+                    .setExpectedDestination("http://sp1.identio.net/SAML2/ACS")
+                    .setExpectedAudience("http://sp1.identio.net/SAML2")
+                    .setReplayCache(replayCache);
+
+            Assert.assertEquals(ar.getID(), pipeline.validate(response).getID());
+
+            try {
+                pipeline.validate(response);
+                Assert.fail("A replayed response must be rejected");
+            } catch (InvalidAuthentResponseException e) {
+                // Expected
+            }
+
+            try {
+                AuthentResponseValidator.getInstance().setValidator(validator)
+                        .setExpectedAudience("http://sp2.identio.net/SAML2").validate(response);
+                Assert.fail("A response for another audience must be rejected");
+            } catch (InvalidAssertionException e) {
+                // Expected
+            }
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException | InvalidAuthentResponseException
+                | InvalidAssertionException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void validationPipelineKeyReferenceTest() {
+
+        String[] keyInfoModes = {SamlConstants.KEYINFO_X509_CERTIFICATE, SamlConstants.KEYINFO_KEY_NAME};
+
+        try {
+
+            for (String keyInfoMode : keyInfoModes) {
+
+                Signer signer = new Signer("src/test/resources/idp2/saml-idp-rollover.p12", KEYSTORE_PASSWORD, true,
+                        SamlConstants.SIGNATURE_ALG_RSA_SHA256, keyInfoMode);
+
+                // The signing certificate is not the only trusted one
+                AuthentResponseValidator pipeline = AuthentResponseValidator.getInstance()
+                        .setValidator(new Validator(Arrays.asList(signer.getCertificate("current"),
+                                signer.getCertificate("next")), true))
+                        .setExpectedAudience("http://sp1.identio.net/SAML2");
+
+                for (boolean signAssertion : Arrays.asList(false, true)) {
+
+                    Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                            .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                            .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                            .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                                    UUID.randomUUID().toString()).build();
+
+                    AuthentResponse ar = AuthentResponseBuilder.getInstance()
+                            .setIssuer("http://idp.identio.net/sp/SAML2").setStatus(true, null)
+                            .setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion).build();
+
+                    if (signAssertion) {
+                        signer.signResponseAndAssertion(ar, "next");
+                    } else {
+                        signer.signEmbedded(ar, "next");
+                    }
+
+                    Assert.assertEquals(ar.getID(),
+                            pipeline.validate(ar.toString().getBytes(StandardCharsets.UTF_8)).getID());
+                }
+            }
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException | InvalidAuthentResponseException
+                | InvalidAssertionException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void validationPipelineStructureCheckTest() {
+
+        try {
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            AuthentResponse ar = AuthentResponseBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setStatus(true, null).setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion)
+                    .build();
+
+            new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256)
+                    .signResponseAndAssertion(ar);
+
+            AtomicInteger verifications = new AtomicInteger();
+
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false) {
+                @Override
+                public AuthentResponse validateResponse(byte[] response) throws UnsignedSAMLObjectException,
+                        UntrustedSignerException, TechnicalException, InvalidSignatureException,
+                        InvalidAuthentResponseException, NoSuchAlgorithmException {
+                    verifications.incrementAndGet();
+                    return super.validateResponse(response);
+                }
+            };
+
+            AuthentResponseValidator pipeline = AuthentResponseValidator.getInstance().setValidator(validator);
+
+            String xpathResponse = ar.toString().replace("http://www.w3.org/2000/09/xmldsig#enveloped-signature",
+                    "http://www.w3.org/TR/1999/REC-xpath-19991116");
+
+            // A malformed signature is rejected before the cryptographic checks
+            try {
+                pipeline.validate(xpathResponse.getBytes(StandardCharsets.UTF_8));
+                Assert.fail("A signature with an XPath transform must be rejected");
+            } catch (InvalidSignatureException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Unsupported transform"));
+            }
+
+            Assert.assertEquals(0, verifications.get());
+
+            pipeline.validate(ar.toString().getBytes(StandardCharsets.UTF_8));
+
+            Assert.assertEquals(1, verifications.get());
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException | InvalidAuthentResponseException
+                | InvalidAssertionException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void streamedSignatureStructureCheckTest() {
+
+        try {
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            AuthentResponse ar = AuthentResponseBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setStatus(true, null).setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion)
+                    .build();
+
+            new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256)
+                    .signResponseAndAssertion(ar);
+
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+
+            // The structure is checked before the digests are computed: the
+            // failure is reported instead of a digest mismatch
+            String xpathResponse = ar.toString().replace("http://www.w3.org/2000/09/xmldsig#enveloped-signature",
+                    "http://www.w3.org/TR/1999/REC-xpath-19991116");
+
+            try {
+                validator.validateResponse(xpathResponse.getBytes(StandardCharsets.UTF_8));
+                Assert.fail("A signature with an XPath transform must be rejected");
+            } catch (InvalidSignatureException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Unsupported transform"));
+            }
+
+            String foreignReference = ar.toString().replace("URI=\"#" + ar.getID() + "\"", "URI=\"#other\"");
+
+            try {
+                validator.validateResponse(foreignReference.getBytes(StandardCharsets.UTF_8));
+                Assert.fail("A reference to another element must be rejected");
+            } catch (InvalidSignatureException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Reference doesn't point to the signed element"));
+            }
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | NoSuchAlgorithmException | InvalidAuthentResponseException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void buildValidatedResponseRejectionTest() throws InterruptedException {
+
+        try {
+
+            Signer signer = new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256);
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+
+            // An assertion valid for no time at all
+            Assertion expiredAssertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 0, 0)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            AuthentResponse expiredAr = AuthentResponseBuilder.getInstance()
+                    .setIssuer("http://idp.identio.net/sp/SAML2").setStatus(true, null)
+                    .setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(expiredAssertion).build();
+
+            signer.signResponseAndAssertion(expiredAr);
+
+            Thread.sleep(10);
+
+            try {
+                AuthentResponseBuilder.getInstance().build(expiredAr.toString().getBytes(StandardCharsets.UTF_8),
+                        validator);
+                Assert.fail("An expired assertion must be rejected");
+            } catch (InvalidAssertionException e) {
+                Assert.assertEquals("Assertion is expired", e.getMessage());
+            }
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            AuthentResponse ar = AuthentResponseBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setStatus(true, null).setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion)
+                    .build();
+
+            signer.signResponseAndAssertion(ar);
+
+            try {
+                AuthentResponseBuilder.getInstance().build(
+                        ar.toString().replace("user1", "user2").getBytes(StandardCharsets.UTF_8), validator);
+                Assert.fail("A tampered response must be rejected");
+            } catch (InvalidSignatureException e) {
+                // Expected
+            }
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException | InvalidAuthentResponseException
+                | InvalidAssertionException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void buildValidatedDualSignedResponseTest() {
+
+        try {
+
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            AuthentResponse ar = AuthentResponseBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setStatus(true, null).setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion)
+                    .build();
+
+            new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256)
+                    .signResponseAndAssertion(ar);
+
+            AuthentResponse validatedAr = AuthentResponseBuilder.getInstance()
+                    .build(ar.toString().getBytes(StandardCharsets.UTF_8), validator);
+
+            Assert.assertEquals(ar.getID(), validatedAr.getID());
+            Assert.assertTrue(validatedAr.isSigned());
+            Assert.assertTrue(validatedAr.getAssertion().isSigned());
+            Assert.assertEquals("user1", validatedAr.getAssertion().getSubjectNameID());
+
+            // Only the response signature covers the destination
+            try {
+                AuthentResponseBuilder.getInstance().build(ar.toString()
+                        .replace("http://sp1.identio.net/SAML2/ACS", "http://sp2.identio.net/SAML2/ACS")
+                        .getBytes(StandardCharsets.UTF_8), validator);
+                Assert.fail("A tampered response must be rejected");
+            } catch (InvalidSignatureException e) {
+                // Expected
+            }
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException | InvalidAuthentResponseException
+                | InvalidAssertionException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void validateStreamedResponseTest() {
+
+        try {
+
+            Assertion assertion = AssertionBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setConditions("http://sp1.identio.net/SAML2", 5, 3)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString()).build();
+
+            AuthentResponse ar = AuthentResponseBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setStatus(true, null).setDestination("http://sp1.identio.net/SAML2/ACS").setAssertion(assertion)
+                    .build();
+
+            new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false, SamlConstants.SIGNATURE_ALG_RSA_SHA256)
+                    .signResponseAndAssertion(ar);
+
+            Validator validator = new Validator(Collections.singletonList(getCertificate(IDP_KEYSTORE)), false);
+
+            AuthentResponse streamedAr = validator.validateResponse(ar.toString().getBytes(StandardCharsets.UTF_8));
+
+            Assert.assertEquals(ar.getID(), streamedAr.getID());
+            Assert.assertTrue(streamedAr.isSigned());
+            Assert.assertEquals("user1", streamedAr.getAssertion().getSubjectNameID());
+
+            // The DOM of a streamed response is built on demand
+            validator.validate(streamedAr.getAssertion());
+
+            // Parse, validate and check the conditions in one call
+            AuthentResponse validatedAr = AuthentResponseBuilder.getInstance()
+                    .build(ar.toString().getBytes(StandardCharsets.UTF_8), validator);
+
+            Assert.assertEquals(ar.getID(), validatedAr.getID());
+
+            try {
+                validator.validateResponse(ar.toString().replace("user1", "user2").getBytes(StandardCharsets.UTF_8));
+                Assert.fail("A tampered response must be rejected");
+            } catch (InvalidSignatureException e) {
+                // Expected
+            }
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException | InvalidAuthentResponseException
+                | InvalidAssertionException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void validateStreamedSingleSignatureTest() {
+
+        String[] keyInfoModes = {SamlConstants.KEYINFO_X509_CERTIFICATE, SamlConstants.KEYINFO_KEY_NAME,
+                SamlConstants.KEYINFO_NONE};
+
+        try {
+
+            for (String keyInfoMode : keyInfoModes) {
+
+                Signer signer = new Signer("src/test/resources/idp2/saml-idp-rollover.p12", KEYSTORE_PASSWORD, true,
+                        SamlConstants.SIGNATURE_ALG_RSA_SHA256, keyInfoMode);
+
+                // The signing certificate is not the only trusted one
+                Validator validator = new Validator(Arrays.asList(signer.getCertificate("current"),
+                        signer.getCertificate("next")), true);
+
+                AuthentResponse ar = AuthentResponseBuilder.getInstance().setIssuer("http://idp.identio.net/sp/SAML2")
+                        .setStatus(false, "Failed").setDestination("http://sp1.identio.net/SAML2/ACS").build();
+
+                signer.signEmbedded(ar, "next");
+
+                AuthentResponse streamedAr = validator.validateResponse(ar.toString()
+                        .getBytes(StandardCharsets.UTF_8));
+
+                Assert.assertEquals(ar.getID(), streamedAr.getID());
+
+                try {
+                    validator.validateResponse(ar.toString().replace("Failed", "Succeeded")
+                            .getBytes(StandardCharsets.UTF_8));
+                    Assert.fail("A tampered response must be rejected");
+                } catch (InvalidSignatureException e) {
+                    // Expected
+                }
+            }
+
+        } catch (TechnicalException | UnsignedSAMLObjectException | UntrustedSignerException
+                | InvalidSignatureException | NoSuchAlgorithmException | InvalidAuthentResponseException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void generateBatchTest() {
+
+        try {
+
+            String issuer = "http://idp.identio.net/sp/SAML2";
+            String sessionId = UUID.randomUUID().toString();
+
+            AuthentResponseBatchBuilder builder = AuthentResponseBatchBuilder.getInstance().setIssuer(issuer)
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(), sessionId)
+                    .setValidity(5, 3)
+                    .setSigner(new Signer(IDP_KEYSTORE, KEYSTORE_PASSWORD, false,
+                            SamlConstants.SIGNATURE_ALG_RSA_SHA256), false);
+
+            for (int i = 1; i <= 3; i++) {
+                ArrayList<Endpoint> acs = new ArrayList<>();
+                acs.add(new Endpoint(0, SamlConstants.BINDING_HTTP_POST, "http://sp" + i + ".identio.net/SAML2/ACS",
+                        true));
+
+                builder.addTarget("http://sp" + i + ".identio.net/SAML2", SpSsoDescriptor.getInstance()
+                        .setAssertionConsumerService(acs).setWantAssertionsSigned(i == 2));
+            }
+
+            List<AuthentResponse> responses = builder.build();
+
+            Assert.assertEquals(3, responses.size());
+
+            for (int i = 1; i <= 3; i++) {
+
+                AuthentResponse parsedAr = AuthentResponseBuilder.getInstance()
+                        .build(responses.get(i - 1).toString());
+                Assertion assertion = parsedAr.getAssertion();
+
+                Assert.assertEquals("http://sp" + i + ".identio.net/SAML2/ACS", parsedAr.getDestination());
+                Assert.assertEquals("http://sp" + i + ".identio.net/SAML2", assertion.getAudienceRestriction());
+                Assert.assertEquals(i == 2, assertion.isSigned());
+                Assert.assertEquals(responses.get(0).getAssertion().getIssueInstant(), assertion.getIssueInstant());
+            }
+
+        } catch (TechnicalException | InvalidAuthentResponseException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void generateBatchWithSharedAttributesTest() {
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+
+            ArrayList<Attribute> attributes = new ArrayList<>();
+            attributes.add(Attribute.singleUse("levels", SamlConstants.ATTRIBUTE_TYPE_INTEGER,
+                    Arrays.asList(1, 2, 3).iterator()));
+
+            AuthentResponseBatchBuilder builder = AuthentResponseBatchBuilder.getInstance()
+                    .setIssuer("http://idp.identio.net/sp/SAML2")
+                    .setSubject("user1", SamlConstants.NAMEID_UNSPECIFIED)
+                    .setAuthentStatement(SamlConstants.AUTH_PASSWORD_PROTECTED_TRANSPORT, Instant.now(),
+                            UUID.randomUUID().toString())
+                    .setAttributes(attributes).setValidity(5, 3).setExecutor(executor);
+
+            for (int i = 1; i <= 3; i++) {
+                ArrayList<Endpoint> acs = new ArrayList<>();
+                acs.add(new Endpoint(0, SamlConstants.BINDING_HTTP_POST, "http://sp" + i + ".identio.net/SAML2/ACS",
+                        true));
+
+                builder.addTarget("http://sp" + i + ".identio.net/SAML2",
+                        SpSsoDescriptor.getInstance().setAssertionConsumerService(acs));
+            }
+
+            // Every assertion of the batch receives all the values
+            for (AuthentResponse response : builder.build()) {
+
+                ArrayList<Attribute> parsedAttributes = AuthentResponseBuilder.getInstance()
+                        .build(response.toString()).getAssertion().getAttributes();
+
+                Assert.assertEquals(1, parsedAttributes.size());
+                Assert.assertEquals(Arrays.asList("1", "2", "3"), parsedAttributes.get(0).getValues());
+            }
+
+        } catch (TechnicalException | InvalidAuthentResponseException e) {
+            Assert.fail(e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static X509Certificate getCertificate(String keystorePath) throws TechnicalException {
+
+        try (FileInputStream fis = new FileInputStream(keystorePath)) {
+
+            KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(fis, KEYSTORE_PASSWORD.toCharArray());
+
+            return (X509Certificate) ks.getCertificate(ks.aliases().nextElement());
+
+        } catch (GeneralSecurityException | IOException e) {
+            throw new TechnicalException("Could not load test certificate", e);
+        }
+    }
 }
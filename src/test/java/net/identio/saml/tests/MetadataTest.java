@@ -18,8 +18,12 @@
 
 package net.identio.saml.tests;
 
+import net.identio.saml.Metadata;
 import net.identio.saml.MetadataBuilder;
+import net.identio.saml.Validator;
+import net.identio.saml.ValidatorRegistry;
 import net.identio.saml.exceptions.TechnicalException;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
@@ -32,4 +36,29 @@ public class MetadataTest {
         MetadataBuilder.build(new File("src/test/resources/defects/client-metadata.xml"));
 
     }
+
+    @Test
+    public void validatorRegistryTest() throws TechnicalException {
+
+        Metadata metadata = MetadataBuilder.build(new File("src/test/resources/idp1/identio-idp-metadata.xml"));
+
+        ValidatorRegistry registry = new ValidatorRegistry(false);
+        registry.register(metadata);
+
+        Validator validator = registry.getValidator(metadata.getEntityID(), ValidatorRegistry.Role.IDP);
+        Assert.assertNotNull(validator);
+        Assert.assertNotNull(registry.getValidator(metadata.getEntityID(), ValidatorRegistry.Role.SP));
+        Assert.assertNull(registry.getValidator("http://unknown.identio.net/SAML2", ValidatorRegistry.Role.IDP));
+
+        // Updated metadata replace the previous validators
+        registry.register(metadata);
+        Assert.assertNotSame(validator, registry.getValidator(metadata.getEntityID(), ValidatorRegistry.Role.IDP));
+
+        registry.unregister(metadata.getEntityID());
+        Assert.assertNull(registry.getValidator(metadata.getEntityID(), ValidatorRegistry.Role.IDP));
+
+        // A later registration is not blocked by the unregistration
+        registry.register(metadata);
+        Assert.assertNotNull(registry.getValidator(metadata.getEntityID(), ValidatorRegistry.Role.IDP));
+    }
 }